@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.ScriptThreadWithoutHibernate;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * JVM wide dispatcher for the automatic steps that are started by the changes. Each step is handed over to Goobi workflow with
+ * {@link ScriptThreadWithoutHibernate#startOrPutToQueue()}, so the message broker or the thread handling of Goobi workflow decides when it runs. The
+ * dispatcher only makes sure that a step whose thread is still running is not started a second time.
+ */
+@Log4j
+public class AutomaticStepDispatcher {
+
+    private static final AutomaticStepDispatcher INSTANCE = new AutomaticStepDispatcher();
+
+    /** thread of each step that was started by the plugin, by process and step */
+    private final Map<String, ScriptThreadWithoutHibernate> pending = new ConcurrentHashMap<>();
+    private final LongAdder deduplicated = new LongAdder();
+
+    private AutomaticStepDispatcher() {
+    }
+
+    public static AutomaticStepDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * start the given automatic step, unless it is already running
+     *
+     * @param step the step to start
+     * @return true if the step was handed over, false if it is still running
+     */
+    public boolean dispatch(Step step) {
+        // forget the threads of finished steps
+        pending.values().removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+
+        String key = step.getProcessId() + ":" + (step.getId() == null ? step.getTitel() : step.getId());
+        ScriptThreadWithoutHibernate scriptThread = new ScriptThreadWithoutHibernate(step);
+        // a thread that was not started yet is being handed over by another run
+        if (pending.compute(key, (k, old) -> old != null && old.getState() != Thread.State.TERMINATED ? old : scriptThread) != scriptThread) {
+            log.debug("automatic step " + step.getTitel() + " of process " + step.getProcessId() + " is already running");
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            scriptThread.startOrPutToQueue();
+        } finally {
+            if (scriptThread.getState() == Thread.State.NEW) {
+                // the step was put to the queue of the message broker, which handles it from now on
+                pending.remove(key, scriptThread);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of steps started by the plugin whose thread is still running
+     */
+    public int getRunning() {
+        int running = 0;
+        for (ScriptThreadWithoutHibernate thread : pending.values()) {
+            if (thread.isAlive()) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return number of steps that were not started because they were still running
+     */
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+}
@@ -0,0 +1,48 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import lombok.Getter;
+
+/**
+ * Immutable, pre-parsed representation of the &lt;config&gt; block that is used for a project and step. It contains the compiled rules and the
+ * settings of the block.
+ */
+@Getter
+public class ChangeConfiguration {
+
+    private final List<ChangeRule> rules;
+
+    /** evaluate the rules and report the result without changing anything */
+    private final boolean dryRun;
+    /** where the report of a dry run is written to, 'journal' or 'file' */
+    private final String reportTarget;
+    /** folder for the reports of dry runs, if they are written to files */
+    private final String reportFolder;
+
+    private ChangeConfiguration(HierarchicalConfiguration config) {
+        List<ChangeRule> ruleList = new ArrayList<>();
+        for (HierarchicalConfiguration change : config.configurationsAt("./change")) {
+            ruleList.add(ChangeRule.fromConfiguration(change));
+        }
+        rules = Collections.unmodifiableList(ruleList);
+
+        dryRun = config.getBoolean("./dryRun", false);
+        reportTarget = config.getString("./dryRun/@report", "journal");
+        reportFolder = config.getString("./dryRun/@folder", "/opt/digiverso/logs/");
+    }
+
+    /**
+     * parse a &lt;config&gt; block
+     *
+     * @param config the configuration of the project and step
+     * @return the compiled configuration
+     */
+    public static ChangeConfiguration fromConfiguration(HierarchicalConfiguration config) {
+        return new ChangeConfiguration(config);
+    }
+}
@@ -0,0 +1,228 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.enums.StepStatus;
+import lombok.Getter;
+
+/**
+ * All changes of a single run, merged from the matching rules in configuration order. Changes on steps are indexed by the step title, so that the
+ * plan can be applied in a single pass over the steps of the process.
+ */
+@Getter
+public class ChangePlan {
+
+    private static final StepStatus[] STATUS_VALUES = new StepStatus[] { StepStatus.OPEN, StepStatus.DEACTIVATED, StepStatus.DONE,
+            StepStatus.LOCKED };
+
+    private final String currentStepTitle;
+    /** checks if a process template with the given name exists */
+    private final Predicate<String> templateExists;
+
+    private boolean anyRuleMatched = false;
+    private boolean currentStepChanged = false;
+
+    /** name of the new process template, null if the template is not changed */
+    private String processTemplate;
+    /** name of the new project, null if the project is not changed */
+    private String project;
+    /** priority for all steps without an explicit priority, set by a '*' title */
+    private Integer priorityForAllSteps;
+
+    private final Map<String, StepChange> stepChanges = new LinkedHashMap<>();
+    private final List<ChangeRule.PropertyChange> propertyChanges = new ArrayList<>();
+    private final List<LogMessage> logMessages = new ArrayList<>();
+
+    public ChangePlan(String currentStepTitle) {
+        this(currentStepTitle, name -> true);
+    }
+
+    /**
+     * @param currentStepTitle title of the step the plugin runs in
+     * @param templateExists checks if a process template with the given name exists. A rule with an unknown template does not change the template
+     *            and keeps the changes of the earlier rules.
+     */
+    public ChangePlan(String currentStepTitle, Predicate<String> templateExists) {
+        this.currentStepTitle = currentStepTitle;
+        this.templateExists = templateExists;
+    }
+
+    /**
+     * add the changes of a matching rule, changes of later rules overwrite changes of earlier rules
+     *
+     * @param rule the matching rule
+     */
+    public void merge(ChangeRule rule) {
+        anyRuleMatched = true;
+
+        for (String title : rule.getStepsToRun()) {
+            getOrCreate(title).autoRun = true;
+        }
+
+        if (StringUtils.isNotBlank(rule.getWorkflow()) && templateExists.test(rule.getWorkflow())) {
+            processTemplate = rule.getWorkflow();
+            // the steps changed so far are replaced by the steps of the new template
+            priorityForAllSteps = null;
+            for (StepChange change : stepChanges.values()) {
+                change.status = null;
+                change.priority = null;
+                change.userGroups = null;
+            }
+        }
+
+        if (StringUtils.isNotBlank(rule.getProject())) {
+            project = rule.getProject();
+        }
+
+        for (Entry<LogType, List<String>> logs : rule.getLogs().entrySet()) {
+            for (String message : logs.getValue()) {
+                logMessages.add(new LogMessage(logs.getKey(), message));
+            }
+        }
+
+        List<List<String>> statusLists = new ArrayList<>(4);
+        statusLists.add(rule.getStepsToOpen());
+        statusLists.add(rule.getStepsToDeactivate());
+        statusLists.add(rule.getStepsToClose());
+        statusLists.add(rule.getStepsToLock());
+        for (int i = 0; i < STATUS_VALUES.length; ++i) {
+            for (String title : statusLists.get(i)) {
+                getOrCreate(title).status = STATUS_VALUES[i];
+            }
+        }
+        for (Entry<String, List<String>> userGroups : rule.getUserGroups().entrySet()) {
+            getOrCreate(userGroups.getKey()).userGroups = userGroups.getValue();
+        }
+        currentStepChanged = rule.changesStatusOf(currentStepTitle);
+
+        mergePriorities(rule);
+
+        propertyChanges.addAll(rule.getProperties());
+    }
+
+    /**
+     * merge the priorities of the rule. If any title is configured with a *, the first such priority is used for all steps and the other priorities
+     * of this rule are ignored.
+     *
+     * @param rule the matching rule
+     */
+    private void mergePriorities(ChangeRule rule) {
+        for (Entry<Integer, List<String>> priority : rule.getPriorities().entrySet()) {
+            if (priority.getValue().contains("*")) {
+                priorityForAllSteps = priority.getKey();
+                for (StepChange change : stepChanges.values()) {
+                    change.priority = null;
+                }
+                return;
+            }
+        }
+        for (Entry<Integer, List<String>> priority : rule.getPriorities().entrySet()) {
+            for (String title : priority.getValue()) {
+                getOrCreate(title).priority = priority.getKey();
+            }
+        }
+    }
+
+    private StepChange getOrCreate(String stepTitle) {
+        return stepChanges.computeIfAbsent(stepTitle, k -> new StepChange());
+    }
+
+    /**
+     * get the planned changes for the step with the given title
+     *
+     * @param stepTitle title of the step
+     * @return the changes or null if the step is not changed
+     */
+    public StepChange getStepChange(String stepTitle) {
+        return stepChanges.get(stepTitle);
+    }
+
+    /**
+     * get the priority the step with the given title gets
+     *
+     * @param stepTitle title of the step
+     * @return the new priority or null if the priority is not changed
+     */
+    public Integer getPriority(String stepTitle) {
+        StepChange change = stepChanges.get(stepTitle);
+        if (change != null && change.priority != null) {
+            return change.priority;
+        }
+        return priorityForAllSteps;
+    }
+
+    /**
+     * @return the titles of all steps that are started automatically after the process was saved
+     */
+    public List<String> getAutomaticRunSteps() {
+        List<String> titles = new ArrayList<>();
+        for (Entry<String, StepChange> change : stepChanges.entrySet()) {
+            if (change.getValue().autoRun) {
+                titles.add(change.getKey());
+            }
+        }
+        return titles;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ChangePlan [anyRuleMatched=").append(anyRuleMatched);
+        sb.append(", currentStepChanged=").append(currentStepChanged);
+        if (processTemplate != null) {
+            sb.append(", processTemplate=").append(processTemplate);
+        }
+        if (project != null) {
+            sb.append(", project=").append(project);
+        }
+        if (priorityForAllSteps != null) {
+            sb.append(", priorityForAllSteps=").append(priorityForAllSteps);
+        }
+        for (Entry<String, StepChange> change : stepChanges.entrySet()) {
+            sb.append(", '").append(change.getKey()).append("'=").append(change.getValue());
+        }
+        for (ChangeRule.PropertyChange property : propertyChanges) {
+            sb.append(", property '").append(property.getName()).append("'=").append(property.isDelete() ? "<delete>" : property.getValue());
+        }
+        sb.append(", logMessages=").append(logMessages.size()).append(']');
+        return sb.toString();
+    }
+
+    /**
+     * planned changes of all steps with the same title
+     */
+    @Getter
+    public static class StepChange {
+        private StepStatus status;
+        private Integer priority;
+        private List<String> userGroups;
+        private boolean autoRun;
+
+        @Override
+        public String toString() {
+            return "{status=" + (status == null ? "-" : status.name()) + ", priority=" + (priority == null ? "-" : priority) + ", userGroups="
+                    + (userGroups == null ? "-" : userGroups) + ", autoRun=" + autoRun + "}";
+        }
+    }
+
+    /**
+     * a journal entry that is written when the plan is applied
+     */
+    @Getter
+    public static class LogMessage {
+        private final LogType type;
+        private final String message;
+
+        LogMessage(LogType type, String message) {
+            this.type = type;
+            this.message = message;
+        }
+    }
+}
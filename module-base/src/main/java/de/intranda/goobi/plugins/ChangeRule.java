@@ -0,0 +1,145 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.production.enums.LogType;
+
+import lombok.Getter;
+
+/**
+ * Immutable, pre-parsed representation of a single &lt;change&gt; block of the plugin configuration. All lookups against the commons-configuration
+ * tree are done once when the rule is created, so that evaluating and applying the rule does not need the configuration any more.
+ */
+@Getter
+public class ChangeRule {
+
+    /** priority values in the order in which they are applied */
+    static final int[] PRIORITY_VALUES = new int[] { 0, 1, 2, 3, 10 };
+
+    /** log types in the order in which the journal entries are written */
+    static final LogType[] LOG_TYPES = new LogType[] { LogType.ERROR, LogType.INFO, LogType.USER, LogType.DEBUG };
+    private static final String[] LOG_TYPE_NAMES = new String[] { "error", "info", "user", "debug" };
+
+    // condition
+    private final RuleCondition condition;
+
+    // changes
+    private final String workflow;
+    private final String project;
+    private final List<String> stepsToOpen;
+    private final List<String> stepsToDeactivate;
+    private final List<String> stepsToClose;
+    private final List<String> stepsToLock;
+    private final List<String> stepsToRun;
+    private final Map<Integer, List<String>> priorities;
+    private final Map<String, List<String>> userGroups;
+    private final List<PropertyChange> properties;
+    private final Map<LogType, List<String>> logs;
+
+    private ChangeRule(HierarchicalConfiguration config) {
+        condition = RuleCondition.fromConfiguration(config);
+
+        workflow = config.getString("./workflow");
+        project = config.getString("./project");
+
+        stepsToOpen = getChangesWithProperty(config, "steps", "type", "open", "title");
+        stepsToDeactivate = getChangesWithProperty(config, "steps", "type", "deactivate", "title");
+        stepsToClose = getChangesWithProperty(config, "steps", "type", "close", "title");
+        stepsToLock = getChangesWithProperty(config, "steps", "type", "lock", "title");
+        stepsToRun = getChangesWithProperty(config, "steps", "type", "run", "title");
+
+        Map<Integer, List<String>> priorityMap = new LinkedHashMap<>();
+        for (int priority : PRIORITY_VALUES) {
+            priorityMap.put(priority, getChangesWithProperty(config, "priority", "value", String.valueOf(priority), "title"));
+        }
+        priorities = Collections.unmodifiableMap(priorityMap);
+
+        Map<String, List<String>> userGroupMap = new LinkedHashMap<>();
+        for (HierarchicalConfiguration def : config.configurationsAt("./usergroups")) {
+            userGroupMap.put(def.getString("@step"), Collections.unmodifiableList(Arrays.asList(def.getStringArray("usergroup"))));
+        }
+        userGroups = Collections.unmodifiableMap(userGroupMap);
+
+        List<PropertyChange> propertyList = new ArrayList<>();
+        for (HierarchicalConfiguration prop : config.configurationsAt("./properties/property")) {
+            propertyList.add(new PropertyChange(prop.getString("@name"), prop.getString("@value"), prop.getBoolean("@delete", false)));
+        }
+        properties = Collections.unmodifiableList(propertyList);
+
+        Map<LogType, List<String>> logMap = new LinkedHashMap<>();
+        for (int i = 0; i < LOG_TYPES.length; ++i) {
+            logMap.put(LOG_TYPES[i], getChangesWithProperty(config, "log", "type", LOG_TYPE_NAMES[i], ""));
+        }
+        logs = Collections.unmodifiableMap(logMap);
+    }
+
+    /**
+     * parse a single &lt;change&gt; block
+     *
+     * @param config the configuration of the &lt;change&gt; element
+     * @return the compiled rule
+     */
+    public static ChangeRule fromConfiguration(HierarchicalConfiguration config) {
+        return new ChangeRule(config);
+    }
+
+    /**
+     * get the type of the condition of this rule
+     *
+     * @return property, search, checkDuplicates, step, and, or or not
+     */
+    public String getConditionType() {
+        return condition.getType();
+    }
+
+    /**
+     * check if the given step title is mentioned in any of the status lists (open, deactivate, close, lock)
+     *
+     * @param stepTitle title of the step
+     * @return true if the status of the step is changed by this rule
+     */
+    public boolean changesStatusOf(String stepTitle) {
+        return stepsToOpen.contains(stepTitle) || stepsToDeactivate.contains(stepTitle) || stepsToClose.contains(stepTitle)
+                || stepsToLock.contains(stepTitle);
+    }
+
+    /**
+     * get the list of items in a <change></change> block given a tag name, an attribute name, an attribute value and an option
+     *
+     * @param config used to get the list
+     * @param tagName
+     * @param attributeName
+     * @param attributeValue
+     * @param option name of a child tag under tagName, default ""
+     * @return the list of items that match
+     */
+    private static List<String> getChangesWithProperty(HierarchicalConfiguration config, String tagName, String attributeName,
+            String attributeValue, String option) {
+        String changePath = "./" + tagName + "[@" + attributeName + "='" + attributeValue + "']"
+                + (StringUtils.isBlank(option) ? "" : "/" + option); //NOSONAR: not a path-delimiter
+        return Collections.unmodifiableList(Arrays.asList(config.getStringArray(changePath)));
+    }
+
+    /**
+     * a single configured &lt;property&gt; change
+     */
+    @Getter
+    public static class PropertyChange {
+        private final String name;
+        private final String value;
+        private final boolean delete;
+
+        PropertyChange(String name, String value, boolean delete) {
+            this.name = name;
+            this.value = value;
+            this.delete = delete;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * JVM wide cache of the compiled configurations. The configurations are stored per project and step title and are dropped as soon as the
+ * configuration file was modified on disk.
+ */
+@Log4j
+public class ChangeRuleCache {
+
+    private static final Map<String, ChangeConfiguration> CONFIGURATIONS = new ConcurrentHashMap<>();
+
+    private static volatile long configLastModified = -1;
+
+    private ChangeRuleCache() {
+        // static access only
+    }
+
+    /**
+     * get the compiled configuration for the project and title of the given step, parse it from the configuration file if it is not cached yet
+     *
+     * @param pluginTitle name of the plugin, used to find the configuration file
+     * @param step the current step
+     * @return the configuration
+     */
+    public static ChangeConfiguration getConfiguration(String pluginTitle, Step step) {
+        if (checkConfigurationFile(Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginTitle + ".xml"))) {
+            // the global settings are read again together with the rules
+            XMLConfiguration config = ConfigPlugins.getPluginConfig(pluginTitle);
+            config.setExpressionEngine(new XPathExpressionEngine());
+            LookupCache.configure(config);
+            ConditionExecutor.getInstance().configure(config);
+            DuplicateIndex.configure(config);
+        }
+        return getConfiguration(step, () -> parseConfiguration(pluginTitle, step));
+    }
+
+    /**
+     * get the cached configuration for the project and title of the given step
+     *
+     * @param step the current step
+     * @param parser creates the configuration if it is not cached yet
+     * @return the configuration
+     */
+    static ChangeConfiguration getConfiguration(Step step, Supplier<ChangeConfiguration> parser) {
+        String key = step.getProzess().getProjekt().getTitel() + '\u0000' + step.getTitel();
+        return CONFIGURATIONS.computeIfAbsent(key, k -> parser.get());
+    }
+
+    /**
+     * remove all cached configurations
+     */
+    public static void invalidate() {
+        CONFIGURATIONS.clear();
+    }
+
+    private static ChangeConfiguration parseConfiguration(String pluginTitle, Step step) {
+        log.debug("parsing change rules for project '" + step.getProzess().getProjekt().getTitel() + "' and step '" + step.getTitel() + "'");
+        SubnodeConfiguration config = ConfigPlugins.getProjectAndStepConfig(pluginTitle, step);
+        return ChangeConfiguration.fromConfiguration(config);
+    }
+
+    /**
+     * drop all cached configurations if the modification date of the configuration file changed since the last call
+     *
+     * @param configFile the configuration file
+     * @return true if the file was changed and the cached configurations were dropped
+     */
+    static boolean checkConfigurationFile(Path configFile) {
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(configFile).toMillis();
+        } catch (IOException e) {
+            lastModified = -1;
+        }
+        if (lastModified != configLastModified) {
+            synchronized (ChangeRuleCache.class) {
+                if (lastModified != configLastModified) {
+                    log.debug("configuration file " + configFile + " changed, dropping cached rules");
+                    CONFIGURATIONS.clear();
+                    configLastModified = lastModified;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,407 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Applies the configured changes to many processes at once, e.g. after a rule was changed. The rules of the step with the given title are evaluated
+ * with the same logic as in a regular run of the plugin. A bulk run is started via JMX and runs in the background, only one bulk run can be active
+ * at a time.
+ *
+ * The processes are handled in batches. All processes of a batch are evaluated in parallel on a bounded pool of worker threads without holding any
+ * lock. Afterwards the locks of the changed processes are taken, their changes and journal entries are written in a single transaction and their
+ * automatic steps are started. The conditional updates of the transaction detect processes that were changed by a regular run in the meantime. If
+ * the transaction fails, these processes are evaluated again and saved one by one, each under its own lock. The journal entries of processes
+ * without matching rules are collected and written in chunks. Progress and throughput are logged after each batch.
+ *
+ * The step of the plugin itself is not opened or closed by the bulk run. If the configuration of a process is a dry run, only the report is
+ * written.
+ */
+@Log4j
+public class ChangeWorkflowBulkRunner {
+
+    /** number of journal entries outside of the transactions after which they are written */
+    private static final int JOURNAL_CAPACITY = 500;
+
+    /** the background thread of the last bulk run */
+    private static Thread bulkRunThread;
+    /** the summary of the active or last bulk run */
+    private static volatile BulkRunReport lastReport;
+
+    private final String stepTitle;
+    private final int threads;
+    private final int batchSize;
+    /** sender of the journal entries, taken from the thread that created the runner */
+    private final String sender;
+    /** journal entries of unchanged, dry run and failed processes, which are not written within a transaction */
+    private final JournalBuffer journal;
+
+    /**
+     * @param stepTitle title of the step that runs the plugin, used to find the configured rules of each process
+     * @param threads number of worker threads used to evaluate the rules
+     * @param batchSize number of processes that are evaluated and saved together
+     */
+    public ChangeWorkflowBulkRunner(String stepTitle, int threads, int batchSize) {
+        this.stepTitle = stepTitle;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        this.sender = JournalBuffer.getCurrentUserName();
+        this.journal = new JournalBuffer(JOURNAL_CAPACITY, sender);
+    }
+
+    /**
+     * start a bulk run for all processes matching the given search query in the background
+     *
+     * @param stepTitle title of the step that runs the plugin
+     * @param filter search query for the processes
+     * @param threads number of worker threads used to evaluate the rules
+     * @param batchSize number of processes that are evaluated and saved together
+     * @return false if another bulk run is still active
+     */
+    public static synchronized boolean start(String stepTitle, String filter, int threads, int batchSize) {
+        if (bulkRunThread != null && bulkRunThread.isAlive()) {
+            return false;
+        }
+        ChangeWorkflowBulkRunner runner = new ChangeWorkflowBulkRunner(stepTitle, threads, batchSize);
+        startThread(() -> runner.runForQuery(filter));
+        return true;
+    }
+
+    /**
+     * start a bulk run for the processes with the given ids in the background
+     *
+     * @param stepTitle title of the step that runs the plugin
+     * @param processIds ids of the processes
+     * @param threads number of worker threads used to evaluate the rules
+     * @param batchSize number of processes that are evaluated and saved together
+     * @return false if another bulk run is still active
+     */
+    public static synchronized boolean start(String stepTitle, List<Integer> processIds, int threads, int batchSize) {
+        if (bulkRunThread != null && bulkRunThread.isAlive()) {
+            return false;
+        }
+        ChangeWorkflowBulkRunner runner = new ChangeWorkflowBulkRunner(stepTitle, threads, batchSize);
+        List<Integer> ids = new ArrayList<>(processIds);
+        startThread(() -> runner.runForIds(ids));
+        return true;
+    }
+
+    private static void startThread(Runnable run) {
+        bulkRunThread = new Thread(run, "change-workflow-bulk-run");
+        bulkRunThread.setDaemon(true);
+        bulkRunThread.start();
+    }
+
+    /**
+     * @return the summary of the active or last bulk run, null if no bulk run was started
+     */
+    public static BulkRunReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * apply the rules to all processes matching the given search query
+     *
+     * @param filter search query for the processes
+     * @return the summary of the run
+     */
+    public BulkRunReport runForQuery(String filter) {
+        return runForIds(ProcessManager.getIdsForFilter(filter));
+    }
+
+    /**
+     * apply the rules to all processes with the given ids
+     *
+     * @param processIds ids of the processes
+     * @return the summary of the run
+     */
+    public BulkRunReport runForIds(List<Integer> processIds) {
+        BulkRunReport report = new BulkRunReport(processIds.size());
+        lastReport = report;
+        log.info("Starting bulk run of step '" + stepTitle + "' for " + processIds.size() + " processes using " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int start = 0; start < processIds.size(); start += batchSize) {
+                List<Integer> batch = processIds.subList(start, Math.min(start + batchSize, processIds.size()));
+                runBatch(executor, batch, report);
+                log.info(report.getProgress());
+            }
+        } catch (InterruptedException e) {
+            log.error("Bulk run was interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            journal.flush();
+        }
+        report.finish();
+        log.info("Finished bulk run of step '" + stepTitle + "': " + report.getProgress());
+        return report;
+    }
+
+    private void runBatch(ExecutorService executor, List<Integer> batch, BulkRunReport report) throws InterruptedException {
+        List<Evaluation> saved = save(evaluateAll(executor, batch, report), report);
+
+        // an automatic step may run this plugin for the same process, so the steps are started without holding the locks
+        for (Evaluation evaluation : saved) {
+            evaluation.plugin.startAutomaticSteps(evaluation.plugin.getProcess(), evaluation.plan);
+        }
+        report.changed += saved.size();
+        report.processed += batch.size();
+    }
+
+    /**
+     * evaluate all processes of the batch in parallel
+     *
+     * @return the evaluations of the processes with matching rules
+     */
+    private List<Evaluation> evaluateAll(ExecutorService executor, List<Integer> batch, BulkRunReport report) throws InterruptedException {
+        List<Future<Evaluation>> futures = new ArrayList<>(batch.size());
+        for (Integer processId : batch) {
+            futures.add(executor.submit(() -> evaluate(processId, true)));
+        }
+        List<Evaluation> changed = new ArrayList<>();
+        for (Future<Evaluation> future : futures) {
+            try {
+                Evaluation evaluation = future.get();
+                if (evaluation == null) {
+                    report.skipped++;
+                } else if (evaluation.plan != null && evaluation.plan.isAnyRuleMatched()) {
+                    changed.add(evaluation);
+                } else {
+                    // e.g. errors of the conditions of a process without matching rules
+                    journal.addAll(evaluation.plugin.getJournal());
+                }
+            } catch (ExecutionException e) {
+                log.error(e.getCause());
+                report.errors++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * write the changes and journal entries of all evaluated processes in a single transaction. Only the locks of these processes are held while
+     * they are saved. If the transaction fails, the processes are evaluated again and saved one by one.
+     *
+     * @param changed the evaluated processes with matching rules
+     * @param report the summary of the run
+     * @return the saved processes
+     */
+    private List<Evaluation> save(List<Evaluation> changed, BulkRunReport report) {
+        if (changed.isEmpty()) {
+            return changed;
+        }
+        List<Integer> processIds = new ArrayList<>(changed.size());
+        for (Evaluation evaluation : changed) {
+            processIds.add(evaluation.plugin.getProcess().getId());
+        }
+        List<Evaluation> saved = new ArrayList<>(changed.size());
+        boolean committed = false;
+        List<Lock> locks = ProcessLocks.lockAll(processIds);
+        long start = System.nanoTime();
+        try {
+            try (UnitOfWork unit = UnitOfWork.begin()) {
+                for (Evaluation evaluation : changed) {
+                    evaluation.plugin.writeChanges(unit);
+                    evaluation.plugin.getJournal().write(unit.getConnection());
+                }
+                unit.commit();
+                committed = true;
+            } catch (ProcessChangedException e) {
+                ChangeWorkflowMetrics.getInstance().incrementConflicts();
+                log.warn("A process of the batch was changed during the bulk run, saving the processes one by one: " + e.getMessage());
+            } catch (SQLException e) {
+                log.error("Cannot write the changes of the batch, saving the processes one by one", e);
+            }
+            if (committed) {
+                for (Evaluation evaluation : changed) {
+                    evaluation.plugin.getJournal().clear();
+                    try {
+                        evaluation.plugin.saveProcess(evaluation.plugin.getProcess());
+                        saved.add(evaluation);
+                    } catch (DAOException e) {
+                        log.error("Cannot save process with ID " + evaluation.plugin.getProcess().getId(), e);
+                        report.errors++;
+                    }
+                }
+            }
+        } finally {
+            ProcessLocks.unlockAll(locks);
+            ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.SAVE, System.nanoTime() - start);
+        }
+        if (committed) {
+            return saved;
+        }
+
+        // the transaction was rolled back, each process is evaluated again and saved like in a regular run
+        for (Integer processId : processIds) {
+            Lock lock = ProcessLocks.lock(processId);
+            try {
+                Evaluation again = saveAgain(processId, report);
+                if (again != null) {
+                    saved.add(again);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * evaluate a process of a batch that could not be saved again and save it on its own. The caller holds the lock of the process.
+     *
+     * @return the evaluation if the process was saved, otherwise null
+     */
+    private Evaluation saveAgain(Integer processId, BulkRunReport report) {
+        Evaluation again = evaluate(processId, false);
+        if (again == null) {
+            return null;
+        }
+        if (again.plan == null || !again.plan.isAnyRuleMatched()) {
+            journal.addAll(again.plugin.getJournal());
+            return null;
+        }
+        try {
+            if (again.plugin.write()) {
+                return again;
+            }
+            journal.addAll(again.plugin.getJournal());
+            report.errors++;
+        } catch (ProcessChangedException e) {
+            ChangeWorkflowMetrics.getInstance().incrementConflicts();
+            log.warn("Process with ID " + processId + " was changed during the bulk run, skipping it: " + e.getMessage());
+            fail(again.plugin);
+            report.errors++;
+        }
+        return null;
+    }
+
+    /**
+     * replace the journal entries of the rules by an error message, which is written with the other entries of the bulk run
+     *
+     * @param plugin the plugin of the process whose changes were not written
+     */
+    private void fail(ChangeWorkflowPlugin plugin) {
+        JournalBuffer pluginJournal = plugin.getJournal();
+        pluginJournal.clear();
+        pluginJournal.add(plugin.getProcess().getId(), LogType.ERROR, "The workflow was not changed, because the changes could not be saved.");
+        journal.addAll(pluginJournal);
+    }
+
+    /**
+     * load the process and evaluate its rules. If the configuration of the process is a dry run, the report is written instead.
+     *
+     * @param processId id of the process
+     * @param countRun true if this is the first evaluation of the process in this bulk run
+     * @return the evaluation or null if the process does not exist or has no step with the configured title
+     */
+    private Evaluation evaluate(int processId, boolean countRun) {
+        Process process = ProcessManager.getProcessById(processId);
+        if (process == null) {
+            return null;
+        }
+        Step pluginStep = null;
+        for (Step s : process.getSchritteList()) {
+            if (stepTitle.equals(s.getTitel())) {
+                pluginStep = s;
+                break;
+            }
+        }
+        if (pluginStep == null) {
+            log.debug("Process with ID " + processId + " has no step '" + stepTitle + "', skipping it");
+            return null;
+        }
+        ChangeWorkflowPlugin plugin = new ChangeWorkflowPlugin();
+        plugin.initialize(pluginStep, "", sender);
+        if (countRun) {
+            ChangeWorkflowMetrics.getInstance().incrementRuns();
+        }
+        try {
+            if (plugin.getConfiguration().isDryRun()) {
+                plugin.writeReport(plugin.explain());
+                journal.addAll(plugin.getJournal());
+                return new Evaluation(plugin, null);
+            }
+            ChangePlan plan = plugin.evaluate(null);
+            if (plan.isAnyRuleMatched()) {
+                plugin.applyPlan(plan);
+            }
+            return new Evaluation(plugin, plan);
+        } catch (RuntimeException e) {
+            // the entries written so far are kept
+            journal.addAll(plugin.getJournal());
+            throw e;
+        }
+    }
+
+    private static class Evaluation {
+        private final ChangeWorkflowPlugin plugin;
+        /** the plan of the rules, null for a dry run */
+        private final ChangePlan plan;
+
+        private Evaluation(ChangeWorkflowPlugin plugin, ChangePlan plan) {
+            this.plugin = plugin;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * summary of a bulk run
+     */
+    @Getter
+    public static class BulkRunReport {
+        private final int total;
+        private final long startTime = System.currentTimeMillis();
+        private volatile long endTime;
+        private volatile int processed;
+        private volatile int changed;
+        private volatile int skipped;
+        private volatile int errors;
+
+        BulkRunReport(int total) {
+            this.total = total;
+        }
+
+        private void finish() {
+            endTime = System.currentTimeMillis();
+        }
+
+        public boolean isFinished() {
+            return endTime != 0;
+        }
+
+        /**
+         * @return number of processed processes per second
+         */
+        public double getThroughput() {
+            long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+            long duration = Math.max(1, end - startTime);
+            return processed * 1000d / duration;
+        }
+
+        /**
+         * @return a human readable progress message
+         */
+        public String getProgress() {
+            return String.format("%d/%d processes handled, %d changed, %d skipped, %d errors, %.1f processes/s", processed, total, changed, skipped,
+                    errors, getThroughput());
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Counters and latency histograms of the plugin. The metrics are collected JVM wide and are published via JMX with the object name
+ * <code>de.intranda.goobi.plugins:type=ChangeWorkflowMetrics</code>.
+ */
+@Log4j
+public class ChangeWorkflowMetrics implements ChangeWorkflowMetricsMBean {
+
+    public enum Timer {
+        METADATA_READ,
+        SEARCH_QUERY,
+        DUPLICATE_QUERY,
+        SAVE,
+        LOCK_WAIT
+    }
+
+    private static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=ChangeWorkflowMetrics";
+
+    private static final ChangeWorkflowMetrics INSTANCE = new ChangeWorkflowMetrics();
+
+    static {
+        register();
+    }
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder matchedPropertyRules = new LongAdder();
+    private final LongAdder matchedSearchRules = new LongAdder();
+    private final LongAdder matchedDuplicateRules = new LongAdder();
+    private final LongAdder matchedOtherRules = new LongAdder();
+    private final LongAdder automaticStepsQueued = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Timer.values().length];
+
+    private ChangeWorkflowMetrics() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static ChangeWorkflowMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // a previously loaded version of the plugin may still be registered
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(INSTANCE, name);
+        } catch (JMException e) {
+            log.error("Cannot register metrics of the change workflow plugin", e);
+        }
+    }
+
+    public void incrementRuns() {
+        runs.increment();
+    }
+
+    /**
+     * count a matching rule
+     *
+     * @param conditionType the condition type of the rule
+     */
+    public void incrementMatchedRules(String conditionType) {
+        switch (conditionType) {
+            case "property":
+                matchedPropertyRules.increment();
+                break;
+            case "search":
+                matchedSearchRules.increment();
+                break;
+            case "checkDuplicates":
+                matchedDuplicateRules.increment();
+                break;
+            default:
+                // step conditions and combined conditions
+                matchedOtherRules.increment();
+                break;
+        }
+    }
+
+    public void addAutomaticStepsQueued(int count) {
+        automaticStepsQueued.add(count);
+    }
+
+    /**
+     * count a run whose changes were not written because the process was changed concurrently
+     */
+    public void incrementConflicts() {
+        conflicts.increment();
+    }
+
+    /**
+     * record the duration of an operation
+     *
+     * @param timer the measured operation
+     * @param elapsedNanos duration in nanoseconds
+     */
+    public void record(Timer timer, long elapsedNanos) {
+        histograms[timer.ordinal()].record(elapsedNanos);
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getMatchedPropertyRules() {
+        return matchedPropertyRules.sum();
+    }
+
+    @Override
+    public long getMatchedSearchRules() {
+        return matchedSearchRules.sum();
+    }
+
+    @Override
+    public long getMatchedDuplicateRules() {
+        return matchedDuplicateRules.sum();
+    }
+
+    @Override
+    public long getMatchedOtherRules() {
+        return matchedOtherRules.sum();
+    }
+
+    @Override
+    public long getAutomaticStepsQueued() {
+        return automaticStepsQueued.sum();
+    }
+
+    @Override
+    public int getAutomaticStepsRunning() {
+        return AutomaticStepDispatcher.getInstance().getRunning();
+    }
+
+    @Override
+    public long getAutomaticStepsDeduplicated() {
+        return AutomaticStepDispatcher.getInstance().getDeduplicated();
+    }
+
+    @Override
+    public long getDuplicateIndexEntries() {
+        return DuplicateIndex.getEntries();
+    }
+
+    @Override
+    public long getMetadataReadCount() {
+        return histograms[Timer.METADATA_READ.ordinal()].getCount();
+    }
+
+    @Override
+    public double getMetadataReadMeanMillis() {
+        return histograms[Timer.METADATA_READ.ordinal()].getMeanMillis();
+    }
+
+    @Override
+    public double getMetadataReadMaxMillis() {
+        return histograms[Timer.METADATA_READ.ordinal()].getMaxMillis();
+    }
+
+    @Override
+    public String getMetadataReadHistogram() {
+        return histograms[Timer.METADATA_READ.ordinal()].toString();
+    }
+
+    @Override
+    public long getSearchQueryCount() {
+        return histograms[Timer.SEARCH_QUERY.ordinal()].getCount();
+    }
+
+    @Override
+    public double getSearchQueryMeanMillis() {
+        return histograms[Timer.SEARCH_QUERY.ordinal()].getMeanMillis();
+    }
+
+    @Override
+    public double getSearchQueryMaxMillis() {
+        return histograms[Timer.SEARCH_QUERY.ordinal()].getMaxMillis();
+    }
+
+    @Override
+    public String getSearchQueryHistogram() {
+        return histograms[Timer.SEARCH_QUERY.ordinal()].toString();
+    }
+
+    @Override
+    public long getDuplicateQueryCount() {
+        return histograms[Timer.DUPLICATE_QUERY.ordinal()].getCount();
+    }
+
+    @Override
+    public double getDuplicateQueryMeanMillis() {
+        return histograms[Timer.DUPLICATE_QUERY.ordinal()].getMeanMillis();
+    }
+
+    @Override
+    public double getDuplicateQueryMaxMillis() {
+        return histograms[Timer.DUPLICATE_QUERY.ordinal()].getMaxMillis();
+    }
+
+    @Override
+    public String getDuplicateQueryHistogram() {
+        return histograms[Timer.DUPLICATE_QUERY.ordinal()].toString();
+    }
+
+    @Override
+    public long getSaveCount() {
+        return histograms[Timer.SAVE.ordinal()].getCount();
+    }
+
+    @Override
+    public double getSaveMeanMillis() {
+        return histograms[Timer.SAVE.ordinal()].getMeanMillis();
+    }
+
+    @Override
+    public double getSaveMaxMillis() {
+        return histograms[Timer.SAVE.ordinal()].getMaxMillis();
+    }
+
+    @Override
+    public String getSaveHistogram() {
+        return histograms[Timer.SAVE.ordinal()].toString();
+    }
+
+    @Override
+    public long getLockWaitCount() {
+        return histograms[Timer.LOCK_WAIT.ordinal()].getCount();
+    }
+
+    @Override
+    public double getLockWaitMeanMillis() {
+        return histograms[Timer.LOCK_WAIT.ordinal()].getMeanMillis();
+    }
+
+    @Override
+    public double getLockWaitMaxMillis() {
+        return histograms[Timer.LOCK_WAIT.ordinal()].getMaxMillis();
+    }
+
+    @Override
+    public String getLockWaitHistogram() {
+        return histograms[Timer.LOCK_WAIT.ordinal()].toString();
+    }
+
+    @Override
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    @Override
+    public void reset() {
+        runs.reset();
+        matchedPropertyRules.reset();
+        matchedSearchRules.reset();
+        matchedDuplicateRules.reset();
+        matchedOtherRules.reset();
+        automaticStepsQueued.reset();
+        conflicts.reset();
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public void invalidateCaches() {
+        ChangeRuleCache.invalidate();
+        LookupCache.invalidateAll();
+        DuplicateIndex.invalidateAll();
+    }
+
+    @Override
+    public String startBulkRun(String stepTitle, String filter, int threads, int batchSize) {
+        if (ChangeWorkflowBulkRunner.start(stepTitle, filter, threads, batchSize)) {
+            return "Bulk run of step '" + stepTitle + "' started";
+        }
+        return "Another bulk run is still active: " + getBulkRunProgress();
+    }
+
+    @Override
+    public String startBulkRunForIds(String stepTitle, String processIds, int threads, int batchSize) {
+        List<Integer> ids = new ArrayList<>();
+        for (String id : StringUtils.split(StringUtils.defaultString(processIds), ", ")) {
+            try {
+                ids.add(Integer.valueOf(id));
+            } catch (NumberFormatException e) {
+                return "Invalid process id: " + id;
+            }
+        }
+        if (ChangeWorkflowBulkRunner.start(stepTitle, ids, threads, batchSize)) {
+            return "Bulk run of step '" + stepTitle + "' started for " + ids.size() + " processes";
+        }
+        return "Another bulk run is still active: " + getBulkRunProgress();
+    }
+
+    @Override
+    public String getBulkRunProgress() {
+        ChangeWorkflowBulkRunner.BulkRunReport report = ChangeWorkflowBulkRunner.getLastReport();
+        if (report == null) {
+            return "No bulk run was started";
+        }
+        return (report.isFinished() ? "Finished: " : "Running: ") + report.getProgress();
+    }
+
+    /**
+     * histogram with fixed buckets in milliseconds
+     */
+    static class LatencyHistogram {
+
+        private static final long[] BUCKET_LIMITS_MILLIS = new long[] { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_LIMITS_MILLIS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long elapsedNanos) {
+            long millis = elapsedNanos / 1_000_000;
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MILLIS.length && millis >= BUCKET_LIMITS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sumNanos.add(elapsedNanos);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanMillis() {
+            long c = count.sum();
+            return c == 0 ? 0 : sumNanos.sum() / 1_000_000d / c;
+        }
+
+        double getMaxMillis() {
+            return maxNanos.get() / 1_000_000d;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            sumNanos.reset();
+            maxNanos.set(0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < buckets.length; ++i) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                if (i < BUCKET_LIMITS_MILLIS.length) {
+                    sb.append("<").append(BUCKET_LIMITS_MILLIS[i]).append("ms=");
+                } else {
+                    sb.append(String.format(Locale.ENGLISH, ">=%dms=", BUCKET_LIMITS_MILLIS[i - 1]));
+                }
+                sb.append(buckets[i].sum());
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * JMX interface of the runtime metrics of the plugin.
+ */
+public interface ChangeWorkflowMetricsMBean {
+
+    long getRuns();
+
+    long getMatchedPropertyRules();
+
+    long getMatchedSearchRules();
+
+    long getMatchedDuplicateRules();
+
+    long getMatchedOtherRules();
+
+    long getAutomaticStepsQueued();
+
+    int getAutomaticStepsRunning();
+
+    long getAutomaticStepsDeduplicated();
+
+    long getDuplicateIndexEntries();
+
+    long getMetadataReadCount();
+
+    double getMetadataReadMeanMillis();
+
+    double getMetadataReadMaxMillis();
+
+    String getMetadataReadHistogram();
+
+    long getSearchQueryCount();
+
+    double getSearchQueryMeanMillis();
+
+    double getSearchQueryMaxMillis();
+
+    String getSearchQueryHistogram();
+
+    long getDuplicateQueryCount();
+
+    double getDuplicateQueryMeanMillis();
+
+    double getDuplicateQueryMaxMillis();
+
+    String getDuplicateQueryHistogram();
+
+    long getSaveCount();
+
+    double getSaveMeanMillis();
+
+    double getSaveMaxMillis();
+
+    String getSaveHistogram();
+
+    long getLockWaitCount();
+
+    double getLockWaitMeanMillis();
+
+    double getLockWaitMaxMillis();
+
+    String getLockWaitHistogram();
+
+    long getConflicts();
+
+    void reset();
+
+    void invalidateCaches();
+
+    /**
+     * start a bulk run in the background that applies the rules of the given step to all processes matching the search query
+     *
+     * @param stepTitle title of the step that runs the plugin
+     * @param filter search query for the processes
+     * @param threads number of worker threads used to evaluate the rules
+     * @param batchSize number of processes that are evaluated and saved together
+     * @return a message whether the bulk run was started
+     */
+    String startBulkRun(String stepTitle, String filter, int threads, int batchSize);
+
+    /**
+     * start a bulk run in the background that applies the rules of the given step to the processes with the given ids
+     *
+     * @param stepTitle title of the step that runs the plugin
+     * @param processIds ids of the processes, separated by commas
+     * @param threads number of worker threads used to evaluate the rules
+     * @param batchSize number of processes that are evaluated and saved together
+     * @return a message whether the bulk run was started
+     */
+    String startBulkRunForIds(String stepTitle, String processIds, int threads, int batchSize);
+
+    String getBulkRunProgress();
+}
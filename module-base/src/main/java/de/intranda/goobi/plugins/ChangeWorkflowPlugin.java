@@ -1,22 +1,27 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.lang3.StringUtils;
-import org.goobi.beans.GoobiProperty;
-import org.goobi.beans.GoobiProperty.PropertyOwnerType;
 import org.goobi.beans.Process;
 import org.goobi.beans.Project;
 import org.goobi.beans.Step;
@@ -28,28 +33,15 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
 
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.BeanHelper;
-import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.ScriptThreadWithoutHibernate;
-import de.sub.goobi.helper.VariableReplacer;
 import de.sub.goobi.helper.enums.StepStatus;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.persistence.managers.MySQLHelper;
 import de.sub.goobi.persistence.managers.ProcessManager;
-import de.sub.goobi.persistence.managers.ProjectManager;
-import de.sub.goobi.persistence.managers.PropertyManager;
-import de.sub.goobi.persistence.managers.StepManager;
-import de.sub.goobi.persistence.managers.UsergroupManager;
 import lombok.Data;
 import lombok.extern.log4j.Log4j;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import ugh.dl.DigitalDocument;
-import ugh.dl.DocStruct;
-import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
-import ugh.dl.Prefs;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.ReadException;
 import ugh.exceptions.UGHException;
@@ -61,6 +53,8 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
 
     private static final long serialVersionUID = 6166419150436281452L;
 
+    private static final ResultSetHandler<Boolean> resultSetExistsHandler = ResultSet::next;
+
     private Step step;
     private Process process;
 
@@ -69,136 +63,499 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
     private PluginType type = PluginType.Step;
 
     private String title = "intranda_step_changeWorkflow";
-    private List<HierarchicalConfiguration> changes;
+    private ChangeConfiguration configuration;
+    private List<ChangeRule> changes;
+    /** changed fields of the process and its steps, written by writeChanges or by a full save */
+    private ProcessChanges processChanges = new ProcessChanges();
+    /** user group assignments changed by applyPlan, written by writeChanges */
+    private UsergroupChanges usergroupChanges = new UsergroupChanges();
+    /** property changes recorded by applyPlan, written by writeChanges */
+    private PropertyChanges propertyChanges = new PropertyChanges();
+    /** steps inserted or deleted by a switch of the process template, written by writeChanges */
+    private TemplateSwitch templateSwitch;
+    /** metadata values compared by checkDuplicates, added to the duplicate index when the step is finished */
+    private Map<String, String> duplicateValues = new ConcurrentHashMap<>();
+    /** plan of a saved run whose automatic steps are started after the process lock was released */
+    private ChangePlan automaticStepsPlan;
+    /** journal entries of the run, written at the end of the run */
+    private JournalBuffer journal = new JournalBuffer(0, JournalBuffer.AUTOMATIC_SENDER);
 
     @Override
     public void initialize(Step step, String returnPath) {
+        initialize(step, returnPath, JournalBuffer.getCurrentUserName());
+    }
+
+    /**
+     * initialize the plugin for a run on another thread than the one of the user session
+     * 
+     * @param step the step of the plugin
+     * @param returnPath the return path
+     * @param sender name of the sender of the journal entries of the run
+     */
+    void initialize(Step step, String returnPath, String sender) {
         this.step = step;
         this.process = step.getProzess();
         this.pagePath = returnPath;
+        processChanges = new ProcessChanges();
+        usergroupChanges = new UsergroupChanges();
+        propertyChanges = new PropertyChanges();
+        templateSwitch = null;
+        automaticStepsPlan = null;
+        duplicateValues.clear();
+        journal = new JournalBuffer(0, sender);
 
-        SubnodeConfiguration config = ConfigPlugins.getProjectAndStepConfig(title, step);
-        changes = config.configurationsAt("./change");
+        configuration = ChangeRuleCache.getConfiguration(title, step);
+        changes = configuration.getRules();
     }
 
     @Override
     public PluginReturnValue run() {
-        boolean anyConditionMatched = false;
-        List<String> automaticRunSteps = new ArrayList<>();
-        boolean currentStepIsChanged = false;
-        // run through all configured changes
-        for (HierarchicalConfiguration configChanges : changes) {
-            String conditionType = configChanges.getString("@type", "property"); // get it from config
-
-            boolean conditionMatches = false;
-
-            switch (conditionType) {
-
-                case "search":
-                    conditionMatches = checkSearchConditions(configChanges);
-                    break;
-                case "property":
-                    conditionMatches = checkPropertyConditions(configChanges);
-                    break;
-                case "checkDuplicates":
-                    // check if configured metadata exists in current process
-                    String metadataType = configChanges.getString("/metadata");
+        ChangeWorkflowMetrics.getInstance().incrementRuns();
+        PluginReturnValue result;
+        // no other run may evaluate and save the same process at the same time
+        Lock lock = ProcessLocks.lock(process.getId());
+        try {
+            result = runRulesWithRetry();
+        } finally {
+            lock.unlock();
+            // all journal entries of the run are written at once
+            journal.flush();
+        }
+        // an automatic step may run this plugin for the same process, so the steps are started without holding the lock
+        if (automaticStepsPlan != null) {
+            startAutomaticSteps(process, automaticStepsPlan);
+            automaticStepsPlan = null;
+        }
+        return result;
+    }
 
-                    try {
-                        String value = getMetadataValue(process, metadataType);
-                        if (StringUtils.isBlank(value)) {
-                            conditionMatches = false;
-                        } else {
-                            // check if other processes with configured metadata exist
-                            List<Integer> sharedIdList = getAllProcessesWithExactMetadata(metadataType, value);
-                            sharedIdList.remove(process.getId());
-                            // check if any of the other processes has already finished the current step
-                            if (sharedIdList.isEmpty()) {
-                                conditionMatches = false;
-                            } else {
-                                List<Integer> stepStatusList = getStepStatus(sharedIdList, step.getTitel());
-                                // if yes, change workflow
-                                if (stepStatusList.contains(3)) {
-                                    conditionMatches = true;
-                                }
-                            }
-                        }
-                    } catch (SQLException e) {
-                        log.error(e);
-                    }
-                    break;
-                default:
-                    break;
+    /**
+     * run the rules, if the process was changed by someone else in the meantime load it again and run the rules a second time
+     * 
+     * @return the result of the run
+     */
+    private PluginReturnValue runRulesWithRetry() {
+        try {
+            return runRules();
+        } catch (ProcessChangedException e) {
+            ChangeWorkflowMetrics.getInstance().incrementConflicts();
+            log.warn("Process with ID " + process.getId() + " was changed concurrently, evaluating the rules again: " + e.getMessage());
+        }
+        // the journal entries of the first attempt are created again
+        journal.clear();
+        if (!reload()) {
+            return PluginReturnValue.ERROR;
+        }
+        try {
+            return runRules();
+        } catch (ProcessChangedException e) {
+            ChangeWorkflowMetrics.getInstance().incrementConflicts();
+            log.error("Cannot write the changes of process with ID " + process.getId(), e);
+            journal.add(process.getId(), LogType.ERROR, "The workflow was not changed, because the process was changed concurrently.");
+            return PluginReturnValue.ERROR;
+        }
+    }
+
+    /**
+     * load the process and the current step again from the database and forget all recorded changes
+     * 
+     * @return false if the process or the step does not exist anymore
+     */
+    private boolean reload() {
+        Process reloaded = ProcessManager.getProcessById(process.getId());
+        if (reloaded != null) {
+            for (Step reloadedStep : reloaded.getSchritteList()) {
+                if (reloadedStep.getId() != null && reloadedStep.getId().equals(step.getId())) {
+                    initialize(reloadedStep, pagePath, journal.getSender());
+                    return true;
+                }
             }
+        }
+        log.error("Cannot load process with ID " + process.getId() + " again");
+        return false;
+    }
 
-            anyConditionMatched = anyConditionMatched || conditionMatches;
+    private PluginReturnValue runRules() throws ProcessChangedException {
+        if (configuration.isDryRun()) {
+            // only report what would happen, the step stays open so that it can be run again
+            writeReport(explain());
+            return PluginReturnValue.WAIT;
+        }
 
-            // 3.) run through tasks and apply the changes
-            if (conditionMatches) {
-                // add new automatic steps
-                prepareAutomaticSteps(configChanges, automaticRunSteps);
+        ChangePlan plan = evaluate(null);
+        log.debug(plan);
 
-                // change process template
-                processProcessTemplate(process, configChanges);
+        // 4.) apply the changes and save the process if any condition matched
+        if (plan.isAnyRuleMatched()) {
+            applyPlan(plan);
+            if (!write()) {
+                return PluginReturnValue.ERROR;
+            }
+            // the automatic steps are only started if everything was saved
+            automaticStepsPlan = plan;
+        }
+        if (!plan.isCurrentStepChanged()) {
+            if (DuplicateIndex.isEnabled()) {
+                // the current step is finished now
+                for (Map.Entry<String, String> entry : duplicateValues.entrySet()) {
+                    DuplicateIndex.addFinishedProcess(entry.getKey(), step.getTitel(), entry.getValue(), process.getId());
+                }
+            }
+            return PluginReturnValue.FINISH;
+        } else {
+            return PluginReturnValue.WAIT;
+        }
+    }
 
-                // change project
-                processProject(process, configChanges);
+    /**
+     * write all changes recorded by applyPlan together with the journal entries of the run in a single transaction. If the transaction fails, the
+     * journal entries of the rules are replaced by an error message.
+     * 
+     * @return true if the changes were written
+     * @throws ProcessChangedException if the process was changed concurrently, nothing was written
+     */
+    boolean write() throws ProcessChangedException {
+        long start = System.nanoTime();
+        boolean committed = false;
+        try {
+            try (UnitOfWork unit = UnitOfWork.begin()) {
+                writeChanges(unit);
+                journal.write(unit.getConnection());
+                unit.commit();
+                committed = true;
+            }
+            journal.clear();
+            saveProcess(process);
+            return true;
+        } catch (ProcessChangedException e) {
+            // the transaction was rolled back
+            throw e;
+        } catch (SQLException | DAOException e) {
+            log.error("Cannot write the changes of process with ID " + process.getId(), e);
+            if (!committed) {
+                // the entries of the rules describe changes that were not written
+                journal.clear();
+                journal.add(process.getId(), LogType.ERROR, "The workflow was not changed, because the changes could not be saved.");
+            }
+            return false;
+        } finally {
+            ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.SAVE, System.nanoTime() - start);
+        }
+    }
 
-                // add log entries into the journal (process log)
-                processLogs(process, configChanges);
+    /**
+     * evaluate all conditions and report which rules match, how long each evaluation took and which changes would be applied. Nothing is changed or
+     * saved.
+     * 
+     * @return the report
+     */
+    public ChangeWorkflowReport explain() {
+        ChangeWorkflowReport report = new ChangeWorkflowReport(process.getId(), process.getTitel(), step.getTitel());
+        report.setPlan(evaluate(report));
+        return report;
+    }
 
-                // run through tasks and change their status
-                currentStepIsChanged = processStepsStatus(process, configChanges);
+    /**
+     * write the report of a dry run to the configured target
+     * 
+     * @param report the report
+     */
+    void writeReport(ChangeWorkflowReport report) {
+        String text = report.toString();
+        log.info(text);
+        if ("file".equals(configuration.getReportTarget())) {
+            Path reportFile = Paths.get(configuration.getReportFolder(),
+                    "changeWorkflow_" + process.getId() + "_" + report.getCreated().getTime() + ".txt");
+            try {
+                Files.createDirectories(reportFile.getParent());
+                Files.write(reportFile, text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.error("Cannot write report " + reportFile, e);
+            }
+        } else {
+            journal.add(process.getId(), LogType.DEBUG, text);
+        }
+    }
 
-                // run through tasks and change their priorities
-                processStepsPriority(process, configChanges);
+    /**
+     * evaluate the conditions of all configured changes and merge the matching ones into a plan, in the order of the configuration. The process
+     * itself is not changed.
+     * 
+     * @param report optional report to add the result and timings of each condition to, can be null
+     * @return the plan with all changes to apply
+     */
+    ChangePlan evaluate(ChangeWorkflowReport report) {
+        ChangePlan plan = new ChangePlan(step.getTitel(), LookupCache::existsProcessTemplate);
+        // the metadata file is only read if a condition needs it
+        MetadataContext metadata = new MetadataContext(process, step);
+
+        // conditions with database queries are started on the pool first, if there is more than one of them
+        ConditionExecutor executor = ConditionExecutor.getInstance();
+        boolean parallel = executor.isParallel() && countQueryConditions() > 1;
+        if (parallel) {
+            // load steps and properties before they are read by several threads
+            process.getSchritteList();
+            process.getEigenschaften();
+        }
+        List<Future<Evaluation>> results = new ArrayList<>(changes.size());
+        for (ChangeRule configChanges : changes) {
+            if (parallel && configChanges.getCondition().getCost() >= RuleCondition.COST_SEARCH) {
+                results.add(executor.submit(() -> evaluateRule(configChanges, metadata)));
+            } else {
+                results.add(null);
+            }
+        }
+        // the cheap conditions are evaluated meanwhile
+        for (int i = 0; i < changes.size(); ++i) {
+            if (results.get(i) == null) {
+                results.set(i, CompletableFuture.completedFuture(evaluateRule(changes.get(i), metadata)));
+            }
+        }
 
-                // change properties if configured
-                properties(process, configChanges);
+        // the results and journal entries are merged strictly in the order of the configuration
+        boolean readFailureReported = false;
+        for (int i = 0; i < changes.size(); ++i) {
+            ChangeRule configChanges = changes.get(i);
+            Evaluation evaluation = getEvaluation(results.get(i));
+            if (!evaluation.messages.isEmpty() && metadata.isReadFailed() && !readFailureReported) {
+                // the first condition that needs the file reports that it is not readable, as in a sequential run
+                journal.add(process.getId(), LogType.ERROR, "Metadata file is not readable", "http step");
+                readFailureReported = true;
+            }
+            journal.addAll(evaluation.messages);
+            if (report != null) {
+                report.addEvaluation(configChanges, evaluation.matches, evaluation.timings, evaluation.totalNanos);
+            }
+            if (evaluation.matches) {
+                if (report == null) {
+                    ChangeWorkflowMetrics.getInstance().incrementMatchedRules(configChanges.getConditionType());
+                }
+                plan.merge(configChanges);
             }
         }
+        if (metadata.isReadFailed() && !readFailureReported) {
+            journal.add(process.getId(), LogType.ERROR, "Metadata file is not readable", "http step");
+        }
+        return plan;
+    }
 
-        // 4.) save the process if any change was done
-        if (anyConditionMatched) {
-            log.debug("anyConditionMatched = " + anyConditionMatched);
-            try {
-                saveProcess(process, automaticRunSteps);
-            } catch (DAOException e) {
-                log.error(e);
-                return PluginReturnValue.ERROR;
+    private int countQueryConditions() {
+        int count = 0;
+        for (ChangeRule rule : changes) {
+            if (rule.getCondition().getCost() >= RuleCondition.COST_SEARCH) {
+                count++;
             }
         }
-        if (!currentStepIsChanged) {
-            return PluginReturnValue.FINISH;
-        } else {
-            return PluginReturnValue.WAIT;
+        return count;
+    }
+
+    private Evaluation evaluateRule(ChangeRule rule, MetadataContext metadata) {
+        ConditionTimings timings = new ConditionTimings();
+        // the condition may run on another thread, its journal entries are added to the journal of the run afterwards
+        JournalBuffer messages = new JournalBuffer(0, journal.getSender());
+        long start = System.nanoTime();
+        boolean matches = conditionMatches(rule.getCondition(), metadata, timings, messages);
+        return new Evaluation(matches, timings, System.nanoTime() - start, messages);
+    }
+
+    private Evaluation getEvaluation(Future<Evaluation> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Evaluation of the conditions of process with ID " + process.getId() + " was interrupted");
+        } catch (ExecutionException e) {
+            log.error("Cannot evaluate condition for process with ID " + process.getId(), e.getCause());
+        }
+        // a condition that could not be evaluated does not match
+        return new Evaluation(false, new ConditionTimings(), 0, new JournalBuffer(0, journal.getSender()));
+    }
+
+    /**
+     * result of the evaluation of a single condition
+     */
+    private static class Evaluation {
+        private final boolean matches;
+        private final ConditionTimings timings;
+        private final long totalNanos;
+        /** journal entries of the condition */
+        private final JournalBuffer messages;
+
+        Evaluation(boolean matches, ConditionTimings timings, long totalNanos, JournalBuffer messages) {
+            this.matches = matches;
+            this.timings = timings;
+            this.totalNanos = totalNanos;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * check if the condition of the configured change is fulfilled. Combined conditions are evaluated in the order of their estimated cost and stop
+     * as soon as the result is known.
+     * 
+     * @param condition the condition of the configured change or a part of it
+     * @param metadata the metadata of the current run
+     * @param timings the time spent on SQL queries and regular expressions is added here
+     * @param messages journal entries of the condition
+     * @return true if the changes shall be applied
+     */
+    private boolean conditionMatches(RuleCondition condition, MetadataContext metadata, ConditionTimings timings, JournalBuffer messages) {
+        switch (condition.getType()) {
+            case "and":
+                // the parts are ordered by cost, stop at the first part that does not match
+                for (RuleCondition child : condition.getChildren()) {
+                    if (!conditionMatches(child, metadata, timings, messages)) {
+                        return false;
+                    }
+                }
+                return true;
+            case "or":
+                for (RuleCondition child : condition.getChildren()) {
+                    if (conditionMatches(child, metadata, timings, messages)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "not":
+                return condition.getChildren().size() == 1 && !conditionMatches(condition.getChildren().get(0), metadata, timings, messages);
+            case "step":
+                return checkStepCondition(condition);
+            case "search":
+                return checkSearchConditions(condition, metadata, timings, messages);
+            case "property":
+                return checkPropertyConditions(condition, metadata, timings, messages);
+            case "checkDuplicates":
+                // check if configured metadata exists in current process
+                String metadataType = condition.getDuplicateMetadata();
+                try {
+                    String value = getMetadataValue(metadata, metadataType, timings);
+                    if (StringUtils.isBlank(value)) {
+                        return false;
+                    }
+                    duplicateValues.put(metadataType, value);
+                    Boolean indexed = DuplicateIndex.existsOtherProcess(metadataType, step.getTitel(), value, process.getId());
+                    if (indexed != null) {
+                        return indexed;
+                    }
+                    // check if any other process with the same metadata value has already finished the current step
+                    long start = System.nanoTime();
+                    try {
+                        return existsFinishedProcessWithExactMetadata(metadataType, value, process.getId(), step.getTitel());
+                    } finally {
+                        long elapsed = System.nanoTime() - start;
+                        timings.add(ConditionTimings.Phase.SQL, elapsed);
+                        ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.DUPLICATE_QUERY, elapsed);
+                    }
+                } catch (SQLException e) {
+                    log.error(e);
+                    return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * apply all changes of the plan to the process. Changes of the steps are done in a single pass over the steps of the process.
+     * 
+     * @param plan the changes to apply
+     */
+    void applyPlan(ChangePlan plan) {
+        // change process template
+        if (plan.getProcessTemplate() != null) {
+            changeProcessTemplate(process, plan.getProcessTemplate());
         }
+
+        // change project
+        if (plan.getProject() != null) {
+            changeProject(process, plan.getProject());
+        }
+
+        // add log entries into the journal (process log)
+        for (ChangePlan.LogMessage message : plan.getLogMessages()) {
+            journal.add(process.getId(), message.getType(), message.getMessage());
+        }
+
+        // run through tasks and change their status, user groups and priorities
+        for (Step currentStep : process.getSchritteList()) {
+            String currentStepName = currentStep.getTitel();
+            ChangePlan.StepChange change = plan.getStepChange(currentStepName);
+            if (change != null) {
+                if (change.getStatus() != null) {
+                    processChanges.changeStatus(currentStep, change.getStatus());
+                }
+                if (change.getUserGroups() != null) {
+                    changeUserGroups(currentStep, change.getUserGroups());
+                }
+            }
+            Integer priority = plan.getPriority(currentStepName);
+            if (priority != null) {
+                processChanges.changePriority(currentStep, priority);
+            }
+        }
+
+        // change properties if configured, they are written when the process is saved
+        propertyChanges.apply(process, plan.getPropertyChanges());
     }
 
-    private boolean checkSearchConditions(HierarchicalConfiguration configChanges) {
+    /**
+     * check if the step with the configured title has the configured status. The steps of the process are already loaded, so this needs no
+     * database access.
+     * 
+     * @param condition the condition
+     * @return true if the process has a step with this title and status
+     */
+    private boolean checkStepCondition(RuleCondition condition) {
+        for (Step currentStep : process.getSchritteList()) {
+            if (currentStep.getTitel().equals(condition.getStepTitle())) {
+                return currentStep.getBearbeitungsstatusEnum() == condition.getStepStatus();
+            }
+        }
+        return false;
+    }
 
-        String query = configChanges.getString("./query");
+    private boolean checkSearchConditions(RuleCondition check, MetadataContext metadata, ConditionTimings timings, JournalBuffer messages) {
+
+        String query = check.getQuery();
         try {
-            String replacedQuery = getRealValue(process, query);
-            int numberOfProcesses = ProcessManager.countProcesses(replacedQuery);
+            String replacedQuery = getRealValue(metadata, query, check.isUseMetadataIndex(), timings);
+
+            TimedCache<String, Boolean> cache = check.getSearchResultCache();
+            Boolean processExists = cache == null ? null : cache.get(replacedQuery);
+            if (processExists == null) {
+                long start = System.nanoTime();
+                try {
+                    processExists = existsProcess(replacedQuery);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    timings.add(ConditionTimings.Phase.SQL, elapsed);
+                    ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.SEARCH_QUERY, elapsed);
+                }
+                if (cache != null) {
+                    cache.put(replacedQuery, processExists);
+                }
+            }
 
-            String condition = configChanges.getString("./condition", "exists");
+            String condition = check.getSearchCondition();
             if ("exists".equals(condition)) {
-                return numberOfProcesses > 0;
+                return processExists;
             } else {
-                return numberOfProcesses == 0;
+                return !processExists;
             }
 
         } catch (ReadException | PreferencesException | IOException | SwapException e) {
             log.error(e);
-            Helper.addMessageToProcessJournal(step.getProzess().getId(), LogType.ERROR, "error reading metadata file", "http step");
+            messages.add(step.getProzess().getId(), LogType.ERROR, "error reading metadata file", "http step");
+            return false;
+        } catch (SQLException e) {
+            log.error(e);
             return false;
         }
     }
 
-    private boolean checkPropertyConditions(HierarchicalConfiguration configChanges) {
+    private boolean checkPropertyConditions(RuleCondition check, MetadataContext metadata, ConditionTimings timings, JournalBuffer messages) {
         // 1.) check if property name is set and get its real value via VariableReplacer
-        String variable = configChanges.getString("./propertyName");
+        String variable = check.getPropertyName();
         log.debug("propertyName = " + variable);
         if (StringUtils.isBlank(variable)) {
             log.error("Cannot find property, abort");
@@ -207,23 +564,24 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
 
         String realValue = null;
         try {
-            realValue = getRealValue(process, variable);
+            realValue = getRealValue(metadata, variable, check.isUseMetadataIndex(), timings);
 
         } catch (Exception e2) {
             log.error("An exception occurred while reading the metadata file for process with ID " + step.getProcessId(), e2);
-            Helper.addMessageToProcessJournal(step.getProzess().getId(), LogType.ERROR, "error reading metadata file", "http step");
+            messages.add(step.getProzess().getId(), LogType.ERROR, "error reading metadata file", "http step");
             return false;
         }
         log.debug("realValue = " + realValue);
 
         // 2.) check if property and value exist in process
-        String preferedValue = configChanges.getString("./propertyValue", "");
-        String condition = configChanges.getString("./propertyCondition", "is");
-
-        log.debug("propertyValue = " + preferedValue);
-        log.debug("propertyCondition = " + condition);
+        ConditionMatcher matcher = check.getConditionMatcher();
+        log.debug("propertyCondition = " + matcher);
 
-        boolean conditionMatches = checkCondition(condition, realValue, preferedValue);
+        long start = System.nanoTime();
+        boolean conditionMatches = matcher.matches(realValue);
+        if ("matches".equals(check.getPropertyCondition())) {
+            timings.add(ConditionTimings.Phase.REGEX, System.nanoTime() - start);
+        }
 
         log.debug("conditionMatches = " + conditionMatches);
 
@@ -231,29 +589,21 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
     }
 
     /**
-     * use VariableReplacer to get the real value of the given Goobi variable
+     * get the real value of the given Goobi variable, either from the database index or by using the VariableReplacer
      * 
-     * @param process the Goobi process, used to get the VariableReplacer object
+     * @param metadata the metadata of the current run, used to get the VariableReplacer object
      * @param variable the Goobi variable that is to be replaced
+     * @param useIndex true if simple variables may be answered from the process properties and the metadata table
+     * @param timings the timings of the current condition
      * @return the value of the variable if it is a valid Goobi variable, null otherwise
      * @throws ReadException
      * @throws IOException
      * @throws SwapException
      * @throws PreferencesException
      */
-    private String getRealValue(Process process, String variable)
+    private String getRealValue(MetadataContext metadata, String variable, boolean useIndex, ConditionTimings timings)
             throws ReadException, IOException, SwapException, PreferencesException {
-        Prefs prefs = process.getRegelsatz().getPreferences();
-        Fileformat ff = process.readMetadataFile();
-        if (ff == null) {
-            log.error("Metadata file is not readable for process with ID " + step.getProcessId());
-            Helper.addMessageToProcessJournal(step.getProzess().getId(), LogType.ERROR, "Metadata file is not readable", "http step");
-            throw new IOException("Metadata file is not readable.");
-        }
-        DigitalDocument dd = ff.getDigitalDocument();
-        VariableReplacer replacer = new VariableReplacer(dd, prefs, step.getProzess(), step);
-
-        String realValue = replacer.replace(variable);
+        String realValue = metadata.replace(variable, useIndex, timings);
         if (realValue.equals(variable)) {
             realValue = null;
         }
@@ -261,81 +611,13 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
         return realValue;
     }
 
-    private String getMetadataValue(Process process, String variable) {
-        String value = "";
+    private String getMetadataValue(MetadataContext metadata, String variable, ConditionTimings timings) {
         try {
-            Fileformat ff = process.readMetadataFile();
-            DigitalDocument dd = ff.getDigitalDocument();
-            DocStruct logical = dd.getLogicalDocStruct();
-
-            for (Metadata md : logical.getAllMetadata()) {
-                if (md.getType().getName().equals(variable)) {
-                    return md.getValue();
-                }
-            }
-
+            return metadata.getTopStructMetadataValue(variable, timings);
         } catch (UGHException | IOException | SwapException e) {
             log.error(e);
         }
-
-        return value;
-    }
-
-    /**
-     * check if the real value satisfies for the given condition
-     * 
-     * @param condition options are "missing" "available" "is" and "not", "matches", any other inputs would just trigger a false to return
-     * @param realValue
-     * @param preferedValue used for conditions "is" and "not" and "matches"
-     * @return true if the real value input satisfies for the given condition, false otherwise
-     */
-    private boolean checkCondition(String condition, String realValue, String preferedValue) {
-        log.debug("checking condition: " + condition);
-        switch (condition) {
-            case "missing":
-                return StringUtils.isBlank(realValue);
-
-            case "available":
-                return StringUtils.isNotBlank(realValue);
-
-            case "is":
-                return StringUtils.isNotBlank(realValue) && realValue.trim().equals(preferedValue);
-
-            case "not":
-                return StringUtils.isBlank(realValue) || !realValue.trim().equals(preferedValue);
-
-            case "matches":
-                return StringUtils.isNotBlank(realValue) && realValue.matches(preferedValue);
-
-            default:
-                return false;
-        }
-    }
-
-    /**
-     * get newly configured automatic steps and add it into the input list
-     * 
-     * @param configChanges used to get the newly configured automatic steps
-     * @param automaticRunSteps list for keeping all automatic steps
-     */
-    private void prepareAutomaticSteps(HierarchicalConfiguration configChanges, List<String> automaticRunSteps) {
-        List<String> stepsToRunAutomatic = getStepsGivenStatus(configChanges, "run");
-        automaticRunSteps.addAll(stepsToRunAutomatic);
-    }
-
-    /**
-     * process changes regarding process templates
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the newly configured process template name
-     */
-    private void processProcessTemplate(Process process, HierarchicalConfiguration configChanges) {
-        String processTemplateName = configChanges.getString("./workflow");
-        log.debug("processTemplateName = " + processTemplateName);
-
-        if (StringUtils.isNotBlank(processTemplateName)) {
-            changeProcessTemplate(process, processTemplateName);
-        }
+        return "";
     }
 
     /**
@@ -346,13 +628,20 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
      */
     private void changeProcessTemplate(Process process, String processTemplateName) {
         log.debug("changing processTemplateName: " + processTemplateName);
-        Process template = ProcessManager.getProcessByExactTitle(processTemplateName);
+        Process template = LookupCache.getProcessTemplate(processTemplateName);
         if (template != null) {
-            BeanHelper helper = new BeanHelper();
-            helper.changeProcessTemplate(process, template);
+            if (process.getId() == null) {
+                new BeanHelper().changeProcessTemplate(process, template);
+                processChanges.requireFullSave();
+            } else {
+                // only the steps that differ from the template are inserted or deleted
+                templateSwitch = new TemplateSwitch();
+                templateSwitch.apply(process, template, processChanges, usergroupChanges, propertyChanges);
+            }
             // check, if the new workflow has the current step in it
             for (Step newTask : process.getSchritteList()) {
-                if (StringUtils.isNotBlank(newTask.getStepPlugin()) && title.equals(newTask.getStepPlugin())
+                // a kept step is still the current step and is closed as usual
+                if (newTask.getId() == null && StringUtils.isNotBlank(newTask.getStepPlugin()) && title.equals(newTask.getStepPlugin())
                         && newTask.getTitel().equals(this.step.getTitel())) {
                     // if this is the case, use old creation date and user
                     newTask.setBearbeitungsbeginn(this.step.getBearbeitungsbeginn());
@@ -365,21 +654,6 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
         }
     }
 
-    /**
-     * process changes regarding projects
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the newly configured process project name
-     */
-    private void processProject(Process process, HierarchicalConfiguration configChanges) {
-        String projectName = configChanges.getString("./project");
-        log.debug("projectName = " + projectName);
-
-        if (StringUtils.isNotBlank(projectName)) {
-            changeProject(process, projectName);
-        }
-    }
-
     /**
      * apply changes regarding projects
      * 
@@ -389,10 +663,9 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
     private void changeProject(Process process, String projectName) {
         log.debug("changing projectName: " + projectName);
         try {
-            Project newProject = ProjectManager.getProjectByName(projectName);
+            Project newProject = LookupCache.getProject(projectName);
             if (newProject != null) {
-                process.setProjekt(newProject);
-                process.setProjectId(newProject.getId());
+                processChanges.changeProject(process, newProject);
                 log.debug("title of newProject = " + newProject.getTitel());
                 log.debug("id of newProject = " + newProject.getId());
             }
@@ -402,356 +675,68 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
     }
 
     /**
-     * property changes
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the configured properties to be changed
-     */
-    private void properties(Process process, HierarchicalConfiguration configChanges) {
-        log.debug("processing properties");
-
-        List<HierarchicalConfiguration> props = configChanges.configurationsAt("./properties/property");
-        for (HierarchicalConfiguration prop : props) {
-            String name = prop.getString("@name");
-            String value = prop.getString("@value");
-            boolean delete = prop.getBoolean("@delete", false);
-
-            // if property shall be deleted
-            if (delete) {
-                for (GoobiProperty pp : process.getEigenschaften()) {
-                    if (pp.getPropertyName().equals(name)) {
-                        PropertyManager.deleteProperty(pp);
-                        break;
-                    }
-                }
-            } else {
-                // if property shall get a new value
-                boolean matched = false;
-                for (GoobiProperty pp : process.getEigenschaften()) {
-                    if (pp.getPropertyName().equals(name)) {
-                        pp.setPropertyValue(value);
-                        pp.setOwner(process);
-                        PropertyManager.saveProperty(pp);
-                        matched = true;
-                        break;
-                    }
-                }
-                if (!matched) {
-                    GoobiProperty pp = new GoobiProperty(PropertyOwnerType.PROCESS);
-                    pp.setPropertyName(name);
-                    pp.setPropertyValue(value);
-                    pp.setOwner(process);
-                    PropertyManager.saveProperty(pp);
-                }
-            }
-        }
-    }
-
-    /**
-     * process changes regarding logs
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the newly configured log types
-     */
-    private void processLogs(Process process, HierarchicalConfiguration configChanges) {
-        log.debug("processing logs");
-        List<String> logError = getLogsGivenType(configChanges, "error");
-        List<String> logInfo = getLogsGivenType(configChanges, "info");
-        List<String> logUser = getLogsGivenType(configChanges, "user");
-        List<String> logDebug = getLogsGivenType(configChanges, "debug");
-
-        List<List<String>> logLists = Arrays.asList(logError, logInfo, logUser, logDebug);
-        LogType[] logTypeValues = new LogType[] { LogType.ERROR, LogType.INFO, LogType.USER, LogType.DEBUG };
-        addAllLogEntries(process, logLists, logTypeValues);
-    }
-
-    /**
-     * process changes regarding steps' status
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the newly configured steps with their status values
-     */
-    private boolean processStepsStatus(Process process, HierarchicalConfiguration configChanges) {
-        log.debug("processing steps' status");
-        List<String> stepsToOpen = getStepsGivenStatus(configChanges, "open");
-        List<String> stepsToDeactivate = getStepsGivenStatus(configChanges, "deactivate");
-        List<String> stepsToClose = getStepsGivenStatus(configChanges, "close");
-        List<String> stepsToLock = getStepsGivenStatus(configChanges, "lock");
-
-        Map<String, List<String>> userGroupChanges = new HashMap<>();
-        List<HierarchicalConfiguration> userGroupDefinition = configChanges.configurationsAt("./usergroups");
-        for (HierarchicalConfiguration def : userGroupDefinition) {
-            String stepTitle = def.getString("@step");
-            List<String> groups = Arrays.asList(def.getStringArray("usergroup"));
-            userGroupChanges.put(stepTitle, groups);
-        }
-
-        List<List<String>> stepsTypeLists = Arrays.asList(stepsToOpen, stepsToDeactivate, stepsToClose, stepsToLock);
-        StepStatus[] statusValues = new StepStatus[] { StepStatus.OPEN, StepStatus.DEACTIVATED, StepStatus.DONE,
-                StepStatus.LOCKED };
-        changeAllStatus(process, stepsTypeLists, statusValues, userGroupChanges);
-
-        return stepsToOpen.contains(step.getTitel()) || stepsToDeactivate.contains(step.getTitel())
-                || stepsToClose.contains(step.getTitel()) || stepsToLock.contains(step.getTitel());
-    }
-
-    /**
-     * process changes regarding steps' priorities
-     * 
-     * @param process the Goobi process
-     * @param configChanges used to get the newly configured steps with their priorities
-     */
-    private void processStepsPriority(Process process, HierarchicalConfiguration configChanges) {
-        log.debug("processing steps' priority");
-        List<String> stepsWithPriorityStandard = getStepsGivenPriority(configChanges, "0");
-        List<String> stepsWithPriorityHigh = getStepsGivenPriority(configChanges, "1");
-        List<String> stepsWithPriorityHigher = getStepsGivenPriority(configChanges, "2");
-        List<String> stepsWithPriorityHighest = getStepsGivenPriority(configChanges, "3");
-        List<String> stepsWithPriorityCorrection = getStepsGivenPriority(configChanges, "10");
-
-        List<List<String>> stepsPriorityLists = Arrays.asList(stepsWithPriorityStandard, stepsWithPriorityHigh,
-                stepsWithPriorityHigher, stepsWithPriorityHighest, stepsWithPriorityCorrection);
-        int[] priorityValues = new int[] { 0, 1, 2, 3, 10 };
-
-        // check if there is any * in the configured steps
-        for (int i = 0; i < priorityValues.length; ++i) {
-            for (String s : stepsPriorityLists.get(i)) {
-                if ("*".equals(s)) {
-                    changeAllPriorities(process, priorityValues[i]);
-                    return;
-                }
-            }
-        }
-        // no * found
-        changeAllPriorities(process, stepsPriorityLists, priorityValues);
-    }
-
-    /**
-     * get the list of steps given the input status value
-     * 
-     * @param configChanges used to get the list of steps
-     * @param statusValue
-     * @return the list of names of the configured steps whose configured status values equal the input
-     */
-    private List<String> getStepsGivenStatus(HierarchicalConfiguration configChanges, String statusValue) {
-        String tagName = "steps";
-        String attributeName = "type";
-        String option = "title";
-        return getChangesWithProperty(configChanges, tagName, attributeName, statusValue, option);
-    }
-
-    /**
-     * get the list of steps given the input priority value
-     * 
-     * @param configChanges used to get the list of steps
-     * @param priority
-     * @return the list of names of the configured steps whose configured priority values equal the input
-     */
-    private List<String> getStepsGivenPriority(HierarchicalConfiguration configChanges, String priority) {
-        String tagName = "priority";
-        String attributeName = "value";
-        String option = "title";
-        return getChangesWithProperty(configChanges, tagName, attributeName, priority, option);
-    }
-
-    /**
-     * get the list of logs given the input log type
-     * 
-     * @param configChanges used to get the list of logs
-     * @param typeValue
-     * @return the list of the configured logs whose configured type values equal the input
-     */
-    private List<String> getLogsGivenType(HierarchicalConfiguration configChanges, String typeValue) {
-        String tagName = "log";
-        String attributeName = "type";
-        String option = "";
-        return getChangesWithProperty(configChanges, tagName, attributeName, typeValue, option);
-    }
-
-    /**
-     * get the list of items in a <change></change> block given a tag name, an attribute name, an attribute value and an option
-     * 
-     * @param configChanges used to get the list
-     * @param tagName
-     * @param attributeName
-     * @param attributeValue
-     * @param option name of a child tag under tagName, default ""
-     * @return the list of items that match
-     */
-    private List<String> getChangesWithProperty(HierarchicalConfiguration configChanges, String tagName,
-            String attributeName, String attributeValue, String option) {
-        String changePath = "./" + tagName + "[@" + attributeName + "='" + attributeValue + "']"
-                + (StringUtils.isBlank(option) ? "" : "/" + option); //NOSONAR: not a path-delimiter
-        return Arrays.asList(configChanges.getStringArray(changePath));
-    }
-
-    /**
-     * add all newly configured log types into the process
-     * 
-     * @param process the Goobi process
-     * @param logLists lists of configured logs of different types
-     * @param logTypeValues the list of log types of elements of logLists
-     */
-    private void addAllLogEntries(Process process, List<List<String>> logLists, LogType[] logTypeValues) {
-        if (logLists.size() != logTypeValues.length) {
-            // error here since these two must match
-            log.error("The sizes of the input list and array do not match!");
-            return;
-        }
-        for (int i = 0; i < logLists.size(); ++i) {
-            addLogEntries(process, logLists.get(i), logTypeValues[i]);
-        }
-    }
-
-    /**
-     * add a list of logs of one given type into the process
-     * 
-     * @param process the Goobi process
-     * @param logList list of configured logs of type logType
-     * @param logType type of elements of logList
-     */
-    private void addLogEntries(Process process, List<String> logList, LogType logType) {
-        for (String s : logList) {
-            Helper.addMessageToProcessJournal(process.getId(), logType, s);
-        }
-    }
-
-    /**
-     * change all status values of the steps of the process
-     * 
-     * @param process the Goobi process
-     * @param stepsLists lists of steps with different status values
-     * @param statusValues the list of status values for the lists in stepsLists
-     * @param userGroupChanges the list of changes upon user group
-     */
-    private void changeAllStatus(Process process, List<List<String>> stepsLists, StepStatus[] statusValues,
-            Map<String, List<String>> userGroupChanges) {
-        if (stepsLists.size() != statusValues.length) {
-            // error here since these two must match
-            log.error("The sizes of the input list and array do not match!");
-            return;
-        }
-        for (Step currentStep : process.getSchritteList()) {
-            // change step status
-            for (int i = 0; i < stepsLists.size(); ++i) {
-                changeStatus(currentStep, stepsLists.get(i), statusValues[i]);
-            }
-
-            // change user groups
-            changeUserGroups(currentStep, userGroupChanges);
-        }
-    }
-
-    /**
-     * change the status value of the input step
-     * 
-     * @param currentStep the Step whose status value is to be changed
-     * @param stepsList the list of steps whose status values are to be changed to status
-     * @param status the status value that all steps in stepsList should be changed to
-     */
-    private void changeStatus(Step currentStep, List<String> stepsList, StepStatus status) {
-        String currentStepName = currentStep.getTitel();
-        for (String taskName : stepsList) {
-            if (currentStepName.equals(taskName)) {
-                currentStep.setBearbeitungsstatusEnum(status);
-            }
-        }
-    }
-
-    /**
-     * change the user group of the input step
+     * change the user groups of the input step. The difference to the current assignments is recorded and written when the process is saved.
      * 
-     * @param currentStep the step whose user group is to be changed
-     * @param userGroupChanges a map containing all changes regarding user groups
+     * @param currentStep the step whose user groups are to be changed
+     * @param userGroupNames names of the user groups that the step shall have
      */
-    private void changeUserGroups(Step currentStep, Map<String, List<String>> userGroupChanges) {
-        String currentStepName = currentStep.getTitel();
-        for (Entry<String, List<String>> task : userGroupChanges.entrySet()) {
-            if (currentStepName.equals(task.getKey())) {
-                // remove old usergroups
-                List<Usergroup> currentGroups = currentStep.getBenutzergruppen();
-                for (Usergroup oldGroup : currentGroups) {
-                    StepManager.removeUsergroupFromStep(currentStep, oldGroup);
-                }
-                currentStep.getBenutzergruppen().clear();
-
-                // add new user group assignments
-                List<String> userGroupNames = task.getValue();
-                for (String newGroupName : userGroupNames) {
-                    Usergroup ug = UsergroupManager.getUsergroupByName(newGroupName);
-                    if (ug != null) {
-                        currentStep.getBenutzergruppen().add(ug);
-                    }
+    private void changeUserGroups(Step currentStep, List<String> userGroupNames) {
+        List<Usergroup> newGroups = new ArrayList<>(userGroupNames.size());
+        for (String newGroupName : userGroupNames) {
+            try {
+                Usergroup ug = LookupCache.getUsergroup(newGroupName);
+                if (ug != null) {
+                    newGroups.add(ug);
                 }
+            } catch (DAOException e) {
+                // the assignments are not changed if a user group cannot be loaded
+                log.error(e);
+                return;
             }
         }
+        usergroupChanges.changeStep(currentStep, newGroups);
     }
 
     /**
-     * change all steps of the process to the same priority value
+     * write the changed step and process fields, user groups, properties and the steps of a template switch recorded by applyPlan within the given
+     * unit of work. The unit is not committed.
      * 
-     * @param process the Goobi process
-     * @param priority the priority value for all the steps in this process
+     * @param unit the unit of work of the current run
+     * @throws SQLException
      */
-    private void changeAllPriorities(Process process, int priority) {
-        for (Step s : process.getSchritteList()) {
-            s.setPrioritaet(priority);
+    void writeChanges(UnitOfWork unit) throws SQLException {
+        processChanges.write(unit.getConnection());
+        usergroupChanges.write(unit.getConnection());
+        propertyChanges.write(unit.getConnection());
+        if (templateSwitch != null) {
+            templateSwitch.write(unit.getConnection());
         }
     }
 
     /**
-     * change all priority values of the steps of the process
+     * save the whole process if its workflow was replaced. This is only required for processes that are not stored yet and must be called after
+     * the unit of work with the other changes was committed, because ProcessManager uses its own connection.
      * 
      * @param process the Goobi process
-     * @param stepsLists lists of steps with different priority values
-     * @param priorityValues the list of priority values for the lists in stepsLists
-     */
-    private void changeAllPriorities(Process process, List<List<String>> stepsLists, int[] priorityValues) {
-        if (stepsLists.size() != priorityValues.length) {
-            // error here since these two must match
-            log.error("The sizes of the input list and array do not match!");
-            return;
-        }
-        for (Step currentStep : process.getSchritteList()) {
-            for (int i = 0; i < stepsLists.size(); ++i) {
-                changePriority(currentStep, stepsLists.get(i), priorityValues[i]);
-            }
-        }
-    }
-
-    /**
-     * change the priority value of the input step
-     * 
-     * @param currentStep the Step whose priority value is to be changed
-     * @param stepsList the list of steps whose priority values are to be changed to priority
-     * @param priority the priority value that all steps in stepsList should be changed to
+     * @throws DAOException
      */
-    private void changePriority(Step currentStep, List<String> stepsList, int priority) {
-        String currentStepName = currentStep.getTitel();
-        for (String taskName : stepsList) {
-            if (currentStepName.equals(taskName)) {
-                currentStep.setPrioritaet(priority);
-            }
+    void saveProcess(Process process) throws DAOException {
+        if (processChanges.isFullSaveRequired()) {
+            ProcessManager.saveProcess(process);
         }
     }
 
     /**
-     * save the process and apply changes on automatic steps
+     * start the configured automatic steps of the saved process
      * 
      * @param process the Goobi process
-     * @param automaticRunSteps the list of automatic steps
-     * @throws DAOException
+     * @param plan the plan containing the automatic steps
      */
-    private void saveProcess(Process process, List<String> automaticRunSteps) throws DAOException {
-        ProcessManager.saveProcess(process);
-
+    void startAutomaticSteps(Process process, ChangePlan plan) {
         for (Step currentStep : process.getSchritteList()) {
-            String currentStepName = currentStep.getTitel();
-            for (String autoRunStepName : automaticRunSteps) {
-                if (currentStepName.equals(autoRunStepName)) {
-                    ScriptThreadWithoutHibernate scriptThread = new ScriptThreadWithoutHibernate(currentStep);
-                    scriptThread.startOrPutToQueue();
-                }
+            ChangePlan.StepChange change = plan.getStepChange(currentStep.getTitel());
+            if (change != null && change.isAutoRun() && AutomaticStepDispatcher.getInstance().dispatch(currentStep)) {
+                ChangeWorkflowMetrics.getInstance().addAutomaticStepsQueued(1);
             }
         }
     }
@@ -781,12 +766,25 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
         return 1;
     }
 
-    private static List<Integer> getAllProcessesWithExactMetadata(String name, String value) throws SQLException {
-        String sql = "SELECT processid FROM metadata WHERE name = ? and value = ?";
+    /**
+     * check if at least one process matches the given filter. Unlike counting the processes, the query stops at the first match.
+     * 
+     * @param filter the search query, as used by ProcessManager.countProcesses
+     * @return true if at least one process matches
+     * @throws SQLException
+     */
+    private static boolean existsProcess(String filter) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT 1 FROM prozesse left join batches on prozesse.batchID = batches.id ");
+        sql.append("left join projekte on prozesse.ProjekteID = projekte.ProjekteID");
+        if (StringUtils.isNotBlank(filter)) {
+            sql.append(" WHERE ").append(filter);
+        }
+        sql.append(" LIMIT 1");
         Connection connection = null;
         try {
             connection = MySQLHelper.getInstance().getConnection();
-            return new QueryRunner().query(connection, sql, MySQLHelper.resultSetToIntegerListHandler, name, value);
+            return new QueryRunner().query(connection, sql.toString(), resultSetExistsHandler);
         } finally {
             if (connection != null) {
                 MySQLHelper.closeConnection(connection);
@@ -794,21 +792,24 @@ public class ChangeWorkflowPlugin implements IStepPluginVersion2 {
         }
     }
 
-    private static List<Integer> getStepStatus(List<Integer> processids, String stepName) throws SQLException {
-        StringBuilder sb = new StringBuilder();
-        for (Integer id : processids) {
-            if (sb.length() > 0) {
-                sb.append(", ");
-            }
-            sb.append(id);
-        }
-
-        String sql = "select distinct Bearbeitungsstatus from schritte where prozesseid in (" + sb.toString()
-                + ") and titel = ?";
+    /**
+     * check if another process with the given metadata value exists that has already finished the step with the given title
+     * 
+     * @param name name of the metadata
+     * @param value value of the metadata
+     * @param processId id of the current process, this process is ignored
+     * @param stepName title of the step
+     * @return true if at least one other process was found
+     * @throws SQLException
+     */
+    private static boolean existsFinishedProcessWithExactMetadata(String name, String value, int processId, String stepName)
+            throws SQLException {
+        String sql = "SELECT 1 FROM metadata m WHERE m.name = ? AND m.value = ? AND m.processid <> ? AND EXISTS "
+                + "(SELECT 1 FROM schritte s WHERE s.prozesseid = m.processid AND s.titel = ? AND s.Bearbeitungsstatus = ?) LIMIT 1";
         Connection connection = null;
         try {
             connection = MySQLHelper.getInstance().getConnection();
-            return new QueryRunner().query(connection, sql, MySQLHelper.resultSetToIntegerListHandler, stepName);
+            return new QueryRunner().query(connection, sql, resultSetExistsHandler, name, value, processId, stepName, StepStatus.DONE.getValue());
         } finally {
             if (connection != null) {
                 MySQLHelper.closeConnection(connection);
@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Report of the evaluation of all rules for one process: for each rule it contains whether the condition matched and how long the evaluation took,
+ * together with the resulting change plan.
+ */
+@Getter
+public class ChangeWorkflowReport {
+
+    private final int processId;
+    private final String processTitle;
+    private final String stepTitle;
+    private final Date created = new Date();
+    private final List<RuleEvaluation> evaluations = new ArrayList<>();
+    @Setter
+    private ChangePlan plan;
+
+    public ChangeWorkflowReport(int processId, String processTitle, String stepTitle) {
+        this.processId = processId;
+        this.processTitle = processTitle;
+        this.stepTitle = stepTitle;
+    }
+
+    /**
+     * add the result of a single rule
+     *
+     * @param rule the evaluated rule
+     * @param matched true if the condition matched
+     * @param timings time spent in the different phases
+     * @param totalNanos total time of the evaluation
+     */
+    public void addEvaluation(ChangeRule rule, boolean matched, ConditionTimings timings, long totalNanos) {
+        evaluations.add(new RuleEvaluation(evaluations.size() + 1, rule, matched, timings, totalNanos));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Change workflow dry run for process '")
+                .append(processTitle)
+                .append("' (ID ")
+                .append(processId)
+                .append("), step '")
+                .append(stepTitle)
+                .append("' at ")
+                .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH).format(created))
+                .append('\n');
+        for (RuleEvaluation evaluation : evaluations) {
+            sb.append(evaluation).append('\n');
+        }
+        sb.append("Resulting plan: ").append(plan);
+        return sb.toString();
+    }
+
+    /**
+     * result of the evaluation of one rule
+     */
+    @Getter
+    public static class RuleEvaluation {
+        private final int index;
+        private final String conditionType;
+        private final String condition;
+        private final boolean matched;
+        private final ConditionTimings timings;
+        private final long totalNanos;
+
+        RuleEvaluation(int index, ChangeRule rule, boolean matched, ConditionTimings timings, long totalNanos) {
+            this.index = index;
+            this.conditionType = rule.getConditionType();
+            this.condition = rule.getCondition().toString();
+            this.matched = matched;
+            this.timings = timings;
+            this.totalNanos = totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('#').append(index).append(' ').append(conditionType).append(' ').append(condition).append(": ");
+            sb.append(matched ? "matched" : "not matched").append(" in ").append(formatMillis(totalNanos)).append(" (");
+            ConditionTimings.Phase[] phases = ConditionTimings.Phase.values();
+            for (int i = 0; i < phases.length; ++i) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(phases[i].getLabel()).append(' ').append(formatMillis(timings.get(phases[i])));
+            }
+            sb.append(')');
+            return sb.toString();
+        }
+
+        private static String formatMillis(long nanos) {
+            return String.format(Locale.ENGLISH, "%.2f ms", nanos / 1_000_000d);
+        }
+    }
+}
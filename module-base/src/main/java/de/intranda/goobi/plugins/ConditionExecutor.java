@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * JVM wide pool for the evaluation of expensive conditions. The conditions of a run that need database queries are evaluated in parallel, so that a
+ * run only waits for the slowest query instead of the sum of all of them. If the pool is busy, the condition is evaluated by the calling thread.
+ */
+@Log4j
+public class ConditionExecutor {
+
+    static final int DEFAULT_THREADS = 4;
+    static final int QUEUE_SIZE = 1000;
+
+    private static final ConditionExecutor INSTANCE = new ConditionExecutor();
+
+    private volatile ThreadPoolExecutor executor;
+    private int threads;
+
+    private ConditionExecutor() {
+        threads = DEFAULT_THREADS;
+        executor = createExecutor(threads);
+    }
+
+    public static ConditionExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * read the settings from the element &lt;conditionEvaluation&gt; of the plugin configuration. If the number of threads changed, a new pool is
+     * used for all further conditions.
+     *
+     * @param config the plugin configuration
+     */
+    public synchronized void configure(HierarchicalConfiguration config) {
+        int newThreads = Math.max(1, config.getInt("./conditionEvaluation/@threads", DEFAULT_THREADS));
+        if (newThreads != threads) {
+            log.debug("condition evaluation: " + newThreads + " threads");
+            ThreadPoolExecutor old = executor;
+            threads = newThreads;
+            executor = createExecutor(threads);
+            old.shutdown();
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "changeWorkflow-condition-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * check if conditions are evaluated in parallel at all
+     *
+     * @return false if only a single thread is configured
+     */
+    public boolean isParallel() {
+        return threads > 1;
+    }
+
+    /**
+     * evaluate a condition on the pool. If the pool cannot take it, it is evaluated immediately by the calling thread.
+     *
+     * @param task the evaluation
+     * @return the future result
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            FutureTask<T> future = new FutureTask<>(task);
+            future.run();
+            return future;
+        }
+    }
+}
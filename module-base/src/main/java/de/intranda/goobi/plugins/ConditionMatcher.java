@@ -0,0 +1,116 @@
+package de.intranda.goobi.plugins;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * A property condition that was compiled once from the configuration: regular expressions are compiled, value lists are turned into sets and
+ * numbers are parsed in advance, so that checking a value is cheap.
+ */
+@Log4j
+public final class ConditionMatcher {
+
+    private final String description;
+    private final Predicate<String> predicate;
+
+    private ConditionMatcher(String description, Predicate<String> predicate) {
+        this.description = description;
+        this.predicate = predicate;
+    }
+
+    /**
+     * compile a condition
+     *
+     * @param condition the condition: missing, available, is, not, matches, in, startsWith, lt or gt
+     * @param values the configured values, only the condition 'in' uses more than the first value
+     * @return the compiled condition, a condition that never matches if the condition is unknown or the value is not valid
+     */
+    public static ConditionMatcher compile(String condition, List<String> values) {
+        String value = values.isEmpty() ? "" : values.get(0);
+        switch (condition) {
+            case "missing":
+                return new ConditionMatcher(condition, StringUtils::isBlank);
+
+            case "available":
+                return new ConditionMatcher(condition, StringUtils::isNotBlank);
+
+            case "is":
+                return new ConditionMatcher(condition + " '" + value + "'", r -> StringUtils.isNotBlank(r) && r.trim().equals(value));
+
+            case "not":
+                return new ConditionMatcher(condition + " '" + value + "'", r -> StringUtils.isBlank(r) || !r.trim().equals(value));
+
+            case "matches":
+                try {
+                    Pattern pattern = Pattern.compile(value);
+                    return new ConditionMatcher(condition + " '" + value + "'", r -> StringUtils.isNotBlank(r) && pattern.matcher(r).matches());
+                } catch (PatternSyntaxException e) {
+                    log.error("Invalid regular expression '" + value + "' in propertyValue", e);
+                    return never(condition + " '" + value + "'");
+                }
+
+            case "in":
+                Set<String> set = new HashSet<>(values);
+                return new ConditionMatcher(condition + " " + values, r -> StringUtils.isNotBlank(r) && set.contains(r.trim()));
+
+            case "startsWith":
+                return new ConditionMatcher(condition + " '" + value + "'", r -> StringUtils.isNotBlank(r) && r.trim().startsWith(value));
+
+            case "lt":
+            case "gt":
+                Double limit = parseNumber(value);
+                if (limit == null) {
+                    log.error("propertyValue '" + value + "' is not a number, the condition '" + condition + "' never matches");
+                    return never(condition + " '" + value + "'");
+                }
+                double number = limit;
+                boolean lessThan = "lt".equals(condition);
+                return new ConditionMatcher(condition + " " + value, r -> {
+                    Double actual = parseNumber(r);
+                    return actual != null && (lessThan ? actual < number : actual > number);
+                });
+
+            default:
+                log.error("Unknown propertyCondition '" + condition + "'");
+                return never(condition);
+        }
+    }
+
+    private static ConditionMatcher never(String description) {
+        return new ConditionMatcher(description, r -> false);
+    }
+
+    private static Double parseNumber(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * check the value
+     *
+     * @param realValue the value of the property or metadata, can be null
+     * @return true if the value fulfills the condition
+     */
+    public boolean matches(String realValue) {
+        return predicate.test(realValue);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
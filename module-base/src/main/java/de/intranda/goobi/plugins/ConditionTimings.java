@@ -0,0 +1,46 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * Time spent in the different phases while a single condition was evaluated.
+ */
+public class ConditionTimings {
+
+    public enum Phase {
+        METADATA_READ("metadata read"),
+        VARIABLE_REPLACEMENT("variable replacement"),
+        SQL("SQL"),
+        REGEX("regex");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    /**
+     * add the time spent in a phase
+     *
+     * @param phase the phase
+     * @param elapsedNanos time in nanoseconds
+     */
+    public void add(Phase phase, long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+
+    /**
+     * get the time spent in a phase
+     *
+     * @param phase the phase
+     * @return the time in nanoseconds
+     */
+    public long get(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+}
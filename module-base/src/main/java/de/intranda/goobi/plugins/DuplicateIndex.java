@@ -0,0 +1,333 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * JVM wide index for the checkDuplicates condition. For a metadata name and a step title it contains the ids of all processes that have finished
+ * the step, grouped by the metadata value. The index is built with a single query on first use and the process is added when the plugin finishes
+ * the step. Steps that are finished in another way are only found after the index was rebuilt, which happens after the configured time to live.
+ *
+ * The ids of each value are kept in small hash sets of primitive ints. If an index would contain more than the configured number of processes, it is
+ * dropped and the database is asked instead. An index is built by the first thread that needs it, other threads ask the database until it is
+ * published.
+ */
+@Log4j
+public class DuplicateIndex {
+
+    static final int DEFAULT_TIME_TO_LIVE = 600;
+    static final int DEFAULT_MAX_ENTRIES = 1_000_000;
+
+    private static final Map<String, DuplicateIndex> INDEXES = new ConcurrentHashMap<>();
+    /** indexes that are currently built, with the processes finished in the meantime */
+    private static final Map<String, Build> BUILDS = new ConcurrentHashMap<>();
+    /** incremented when all indexes are dropped, so that an index built before is not published */
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    private static volatile boolean enabled = false;
+    private static volatile long timeToLiveMillis = DEFAULT_TIME_TO_LIVE * 1000L;
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final long created = System.currentTimeMillis();
+    /** process ids by metadata value, null if the index became too large */
+    private Map<String, ProcessIds> processesByValue;
+    private int entries;
+
+    private DuplicateIndex(Map<String, ProcessIds> processesByValue, int entries) {
+        this.processesByValue = processesByValue;
+        this.entries = entries;
+    }
+
+    /**
+     * read the settings from the element &lt;duplicateIndex&gt; of the plugin configuration and drop all indexes
+     *
+     * @param config the plugin configuration
+     */
+    public static void configure(HierarchicalConfiguration config) {
+        enabled = config.getBoolean("./duplicateIndex/@enabled", false);
+        timeToLiveMillis = config.getInt("./duplicateIndex/@ttl", DEFAULT_TIME_TO_LIVE) * 1000L;
+        maxEntries = config.getInt("./duplicateIndex/@maxEntries", DEFAULT_MAX_ENTRIES);
+        log.debug("duplicate index: " + (enabled ? "enabled, ttl " + timeToLiveMillis / 1000 + "s, max entries " + maxEntries : "disabled"));
+        invalidateAll();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * check if another process with the given metadata value has finished the step
+     *
+     * @param name name of the metadata
+     * @param stepTitle title of the step
+     * @param value value of the metadata
+     * @param processId id of the current process, this process is ignored
+     * @return the result or null if no index is available and the database must be asked
+     */
+    public static Boolean existsOtherProcess(String name, String stepTitle, String value, int processId) {
+        if (!enabled) {
+            return null;
+        }
+        DuplicateIndex index = getIndex(name, stepTitle);
+        return index == null ? null : index.containsOther(value, processId);
+    }
+
+    /**
+     * add a process that has just finished the step to the index, if the index exists
+     *
+     * @param name name of the metadata
+     * @param stepTitle title of the step
+     * @param value value of the metadata in the process
+     * @param processId id of the process
+     */
+    public static void addFinishedProcess(String name, String stepTitle, String value, int processId) {
+        String key = getKey(name, stepTitle);
+        Build build = BUILDS.get(key);
+        if (build != null) {
+            build.add(value, processId);
+        }
+        DuplicateIndex index = INDEXES.get(key);
+        if (index != null) {
+            index.add(value, processId);
+        }
+    }
+
+    /**
+     * drop all indexes, they are rebuilt from the database on next use
+     */
+    public static void invalidateAll() {
+        GENERATION.incrementAndGet();
+        INDEXES.clear();
+    }
+
+    /**
+     * @return number of processes in all indexes
+     */
+    public static long getEntries() {
+        long sum = 0;
+        for (DuplicateIndex index : INDEXES.values()) {
+            sum += Math.max(0, index.getSize());
+        }
+        return sum;
+    }
+
+    private static String getKey(String name, String stepTitle) {
+        return name + '\u0000' + stepTitle;
+    }
+
+    private static DuplicateIndex getIndex(String name, String stepTitle) {
+        String key = getKey(name, stepTitle);
+        DuplicateIndex index = INDEXES.get(key);
+        if (index == null || index.isExpired()) {
+            index = buildAndPublish(key, name, stepTitle);
+        }
+        return index == null || index.getSize() < 0 ? null : index;
+    }
+
+    /**
+     * build the index outside of the map and publish it. Only one thread builds an index, the others ask the database in the meantime instead of
+     * waiting for the query.
+     *
+     * @return the new index or null if another thread builds it or the query failed
+     */
+    private static DuplicateIndex buildAndPublish(String key, String name, String stepTitle) {
+        Build build = new Build();
+        if (BUILDS.putIfAbsent(key, build) != null) {
+            return null;
+        }
+        try {
+            int generation = GENERATION.get();
+            DuplicateIndex index = build(name, stepTitle);
+            if (index == null) {
+                return null;
+            }
+            // processes finished during the query are added before the index is published, later ones are added to the index directly
+            build.publish(key, index, generation);
+            return index;
+        } finally {
+            BUILDS.remove(key, build);
+        }
+    }
+
+    private static DuplicateIndex build(String name, String stepTitle) {
+        String sql = "SELECT m.value, m.processid FROM metadata m WHERE m.name = ? AND EXISTS "
+                + "(SELECT 1 FROM schritte s WHERE s.prozesseid = m.processid AND s.titel = ? AND s.Bearbeitungsstatus = ?)";
+        int limit = maxEntries;
+        ResultSetHandler<DuplicateIndex> handler = rs -> {
+            Map<String, ProcessIds> processesByValue = new HashMap<>();
+            int entries = 0;
+            while (rs.next()) {
+                if (addProcess(processesByValue, rs.getString(1), rs.getInt(2)) && ++entries > limit) {
+                    log.warn("duplicate index for metadata '" + name + "' and step '" + stepTitle + "' exceeds " + limit
+                            + " entries, the database is used instead");
+                    return new DuplicateIndex(null, -1);
+                }
+            }
+            return new DuplicateIndex(processesByValue, entries);
+        };
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            DuplicateIndex index = new QueryRunner().query(connection, sql, handler, name, stepTitle, StepStatus.DONE.getValue());
+            log.debug("built duplicate index for metadata '" + name + "' and step '" + stepTitle + "' with " + index.getSize() + " entries in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return index;
+        } catch (SQLException e) {
+            log.error("Cannot build duplicate index for metadata '" + name + "' and step '" + stepTitle + "'", e);
+            return null;
+        } finally {
+            if (connection != null) {
+                try {
+                    MySQLHelper.closeConnection(connection);
+                } catch (SQLException e) {
+                    log.error("Cannot close database connection", e);
+                }
+            }
+            ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.DUPLICATE_QUERY, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * add a process id to the ids of the value
+     *
+     * @return true if the id was not contained yet
+     */
+    private static boolean addProcess(Map<String, ProcessIds> processesByValue, String value, int processId) {
+        if (value == null || value.isBlank()) {
+            return false;
+        }
+        return processesByValue.computeIfAbsent(value, v -> new ProcessIds()).add(processId);
+    }
+
+    private boolean isExpired() {
+        return timeToLiveMillis > 0 && System.currentTimeMillis() - created > timeToLiveMillis;
+    }
+
+    private synchronized int getSize() {
+        return processesByValue == null ? -1 : entries;
+    }
+
+    private synchronized Boolean containsOther(String value, int processId) {
+        if (processesByValue == null) {
+            return null;
+        }
+        ProcessIds ids = processesByValue.get(value);
+        return ids != null && ids.containsOther(processId);
+    }
+
+    private synchronized void add(String value, int processId) {
+        if (processesByValue != null && addProcess(processesByValue, value, processId) && ++entries > maxEntries) {
+            log.warn("duplicate index exceeds " + maxEntries + " entries, the database is used instead");
+            processesByValue = null;
+        }
+    }
+
+    /**
+     * an index that is currently built, collects the processes that are finished during the query
+     */
+    private static class Build {
+        private final List<Object[]> finished = new ArrayList<>();
+        private boolean published = false;
+
+        private synchronized void add(String value, int processId) {
+            if (!published) {
+                finished.add(new Object[] { value, processId });
+            }
+        }
+
+        private synchronized void publish(String key, DuplicateIndex index, int generation) {
+            for (Object[] process : finished) {
+                index.add((String) process[0], (Integer) process[1]);
+            }
+            finished.clear();
+            published = true;
+            // the indexes were dropped during the query, e.g. because the configuration was changed
+            if (GENERATION.get() == generation) {
+                INDEXES.put(key, index);
+            }
+        }
+    }
+
+    /**
+     * open addressing hash set of process ids. Process ids are positive, so 0 marks an empty slot. Most values belong to a single process, so the
+     * set starts with two slots.
+     */
+    static class ProcessIds {
+        private int[] slots = new int[2];
+        private int size;
+
+        boolean add(int processId) {
+            if (contains(processId)) {
+                return false;
+            }
+            // keep the load factor below 3/4
+            if ((size + 1) * 4 > slots.length * 3) {
+                resize(slots.length * 2);
+            }
+            insert(slots, processId);
+            ++size;
+            return true;
+        }
+
+        boolean contains(int processId) {
+            int mask = slots.length - 1;
+            for (int i = hash(processId) & mask;; i = (i + 1) & mask) {
+                if (slots[i] == processId) {
+                    return true;
+                } else if (slots[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return true if the set contains a process other than the given one
+         */
+        boolean containsOther(int processId) {
+            return size > 1 || size == 1 && !contains(processId);
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void resize(int capacity) {
+            int[] resized = new int[capacity];
+            for (int id : slots) {
+                if (id != 0) {
+                    insert(resized, id);
+                }
+            }
+            slots = resized;
+        }
+
+        private static void insert(int[] slots, int processId) {
+            int mask = slots.length - 1;
+            int i = hash(processId) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = processId;
+        }
+
+        private static int hash(int processId) {
+            int hash = processId * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
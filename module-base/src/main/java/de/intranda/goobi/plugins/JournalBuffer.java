@@ -0,0 +1,212 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.goobi.beans.User;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Collects the journal entries of one or more runs and writes them with a single multi-row insert. The creation date of each entry is taken when
+ * it is added, the entries are inserted in the order they were added. The sender of the entries is taken once when the buffer is created, so that
+ * entries can be added from other threads than the one of the user session.
+ */
+@Log4j
+public class JournalBuffer {
+
+    /** maximum number of rows in a single insert statement */
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private static final String INSERT = "INSERT INTO journal (objectID, creationDate, userName, type, content, entrytype) VALUES ";
+    private static final String ROW = "(?, ?, ?, ?, ?, 'process')";
+
+    /** sender of entries that are not created by a user */
+    public static final String AUTOMATIC_SENDER = "- automatic -";
+
+    private final int capacity;
+    @Getter
+    private final String sender;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * create a new buffer
+     *
+     * @param capacity number of entries after which the buffer is written automatically, 0 to write it only when flush is called
+     * @param sender name of the sender of the entries, see {@link #getCurrentUserName()}
+     */
+    public JournalBuffer(int capacity, String sender) {
+        this.capacity = capacity;
+        this.sender = sender;
+    }
+
+    /**
+     * get the name of the user of the current session. This must be called on the thread of the session.
+     *
+     * @return the name of the current user or {@link #AUTOMATIC_SENDER} if there is no user
+     */
+    public static String getCurrentUserName() {
+        User user = Helper.getCurrentUser();
+        return user == null ? AUTOMATIC_SENDER : user.getNachVorname();
+    }
+
+    /**
+     * add an entry with the sender of the buffer
+     *
+     * @param processId id of the process
+     * @param type type of the entry
+     * @param message the message
+     */
+    public void add(int processId, LogType type, String message) {
+        add(processId, type, message, sender);
+    }
+
+    /**
+     * add an entry
+     *
+     * @param processId id of the process
+     * @param type type of the entry
+     * @param message the message
+     * @param sender name of the sender
+     */
+    public void add(int processId, LogType type, String message, String sender) {
+        boolean full;
+        synchronized (this) {
+            entries.add(new Entry(processId, type, message, sender, new Date()));
+            full = capacity > 0 && entries.size() >= capacity;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * move all entries of another buffer to this one, keeping their sender and creation date
+     *
+     * @param other the buffer to take the entries from, it is empty afterwards
+     */
+    public void addAll(JournalBuffer other) {
+        List<Entry> moved;
+        synchronized (other) {
+            moved = new ArrayList<>(other.entries);
+            other.entries.clear();
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            entries.addAll(moved);
+            full = capacity > 0 && entries.size() >= capacity;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * write all buffered entries. If the insert fails, the entries are written one by one.
+     */
+    public void flush() {
+        List<Entry> pending;
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>(entries);
+            entries.clear();
+        }
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            insert(connection, pending);
+        } catch (SQLException e) {
+            log.error("Cannot write " + pending.size() + " journal entries at once, writing them one by one", e);
+            for (Entry entry : pending) {
+                Helper.addMessageToProcessJournal(entry.processId, entry.type, entry.message, entry.sender);
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    MySQLHelper.closeConnection(connection);
+                } catch (SQLException e) {
+                    log.error("Cannot close database connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * write all buffered entries using the connection of a unit of work. The entries stay in the buffer until {@link #clear()} is called after the
+     * unit was committed, so that they can still be written with {@link #flush()} if the unit is rolled back.
+     *
+     * @param connection the connection of the current unit of work
+     * @throws SQLException
+     */
+    public void write(Connection connection) throws SQLException {
+        List<Entry> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(entries);
+        }
+        insert(connection, pending);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * remove all buffered entries
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static void insert(Connection connection, List<Entry> pending) throws SQLException {
+        QueryRunner run = new QueryRunner();
+        for (int start = 0; start < pending.size(); start += ROWS_PER_STATEMENT) {
+            List<Entry> rows = pending.subList(start, Math.min(start + ROWS_PER_STATEMENT, pending.size()));
+            StringBuilder sql = new StringBuilder(INSERT);
+            Object[] params = new Object[rows.size() * 5];
+            int i = 0;
+            for (Entry entry : rows) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(ROW);
+                params[i++] = entry.processId;
+                params[i++] = new Timestamp(entry.created.getTime());
+                params[i++] = entry.sender;
+                // same serialisation as the JournalManager of Goobi workflow
+                params[i++] = entry.type.getTitle();
+                params[i++] = entry.message;
+            }
+            run.update(connection, sql.toString(), params);
+        }
+    }
+
+    private static class Entry {
+        private final int processId;
+        private final LogType type;
+        private final String message;
+        private final String sender;
+        private final Date created;
+
+        private Entry(int processId, LogType type, String message, String sender, Date created) {
+            this.processId = processId;
+            this.type = type;
+            this.message = message;
+            this.sender = sender;
+            this.created = created;
+        }
+    }
+}
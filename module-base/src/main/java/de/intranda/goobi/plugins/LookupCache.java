@@ -0,0 +1,189 @@
+package de.intranda.goobi.plugins;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Usergroup;
+
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.ProjectManager;
+import de.sub.goobi.persistence.managers.UsergroupManager;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * JVM wide cache for the user groups, projects and process templates that are assigned by the change actions. The same few names are looked up
+ * on every matching run, so the ids of the names are kept for a configurable time instead of searching them by name each time. The objects
+ * themselves are not shared, each call loads its own object by id, so that a run cannot change the objects of another run. Names that do not exist
+ * are not cached.
+ */
+@Log4j
+public class LookupCache {
+
+    static final int DEFAULT_TIME_TO_LIVE = 300;
+    static final int DEFAULT_SIZE = 1000;
+
+    private static volatile TimedCache<String, Integer> usergroups = createCache(DEFAULT_TIME_TO_LIVE, DEFAULT_SIZE);
+    private static volatile TimedCache<String, Integer> projects = createCache(DEFAULT_TIME_TO_LIVE, DEFAULT_SIZE);
+    private static volatile TimedCache<String, Integer> processTemplates = createCache(DEFAULT_TIME_TO_LIVE, DEFAULT_SIZE);
+
+    private LookupCache() {
+        // static access only
+    }
+
+    /**
+     * read the settings from the element &lt;lookupCache&gt; of the plugin configuration and drop all cached ids. A time to live of 0 disables the
+     * cache.
+     *
+     * @param config the plugin configuration
+     */
+    public static void configure(HierarchicalConfiguration config) {
+        int timeToLive = config.getInt("./lookupCache/@ttl", DEFAULT_TIME_TO_LIVE);
+        int size = config.getInt("./lookupCache/@size", DEFAULT_SIZE);
+        log.debug("lookup cache: ttl " + timeToLive + "s, size " + size);
+        usergroups = createCache(timeToLive, size);
+        projects = createCache(timeToLive, size);
+        processTemplates = createCache(timeToLive, size);
+    }
+
+    private static <V> TimedCache<String, V> createCache(int timeToLive, int size) {
+        if (timeToLive <= 0) {
+            return null;
+        }
+        return new TimedCache<>(timeToLive * 1000L, size);
+    }
+
+    /**
+     * get the user group with the given name
+     *
+     * @param name name of the user group
+     * @return a new user group object or null if it does not exist
+     * @throws DAOException
+     */
+    public static Usergroup getUsergroup(String name) throws DAOException {
+        TimedCache<String, Integer> cache = usergroups;
+        Integer id = cache == null ? null : cache.get(name);
+        if (id != null) {
+            Usergroup usergroup = UsergroupManager.getUsergroupById(id);
+            if (usergroup != null) {
+                return usergroup;
+            }
+            // the user group was deleted in the meantime
+            cache.invalidate(name);
+        }
+        Usergroup usergroup = UsergroupManager.getUsergroupByName(name);
+        if (usergroup != null && cache != null) {
+            cache.put(name, usergroup.getId());
+        }
+        return usergroup;
+    }
+
+    /**
+     * get the project with the given name
+     *
+     * @param name name of the project
+     * @return a new project object or null if it does not exist
+     * @throws DAOException
+     */
+    public static Project getProject(String name) throws DAOException {
+        TimedCache<String, Integer> cache = projects;
+        Integer id = cache == null ? null : cache.get(name);
+        if (id != null) {
+            Project project = ProjectManager.getProjectById(id);
+            if (project != null) {
+                return project;
+            }
+            cache.invalidate(name);
+        }
+        Project project = ProjectManager.getProjectByName(name);
+        if (project != null && cache != null) {
+            cache.put(name, project.getId());
+        }
+        return project;
+    }
+
+    /**
+     * check if a process template with the given title exists, without loading it
+     *
+     * @param title title of the process template
+     * @return true if the process template exists
+     */
+    public static boolean existsProcessTemplate(String title) {
+        TimedCache<String, Integer> cache = processTemplates;
+        return (cache != null && cache.get(title) != null) || getProcessTemplate(title) != null;
+    }
+
+    /**
+     * get the process template with the given title
+     *
+     * @param title title of the process template
+     * @return a new process object or null if it does not exist
+     */
+    public static Process getProcessTemplate(String title) {
+        TimedCache<String, Integer> cache = processTemplates;
+        Integer id = cache == null ? null : cache.get(title);
+        if (id != null) {
+            Process template = ProcessManager.getProcessById(id);
+            if (template != null) {
+                return template;
+            }
+            cache.invalidate(title);
+        }
+        Process template = ProcessManager.getProcessByExactTitle(title);
+        if (template != null && cache != null) {
+            cache.put(title, template.getId());
+        }
+        return template;
+    }
+
+    /**
+     * remove the cached ids of all user groups, projects and process templates
+     */
+    public static void invalidateAll() {
+        invalidate(usergroups);
+        invalidate(projects);
+        invalidate(processTemplates);
+    }
+
+    /**
+     * remove a single user group, e.g. after it was renamed or deleted
+     *
+     * @param name name of the user group
+     */
+    public static void invalidateUsergroup(String name) {
+        TimedCache<String, Integer> cache = usergroups;
+        if (cache != null) {
+            cache.invalidate(name);
+        }
+    }
+
+    /**
+     * remove a single project
+     *
+     * @param name name of the project
+     */
+    public static void invalidateProject(String name) {
+        TimedCache<String, Integer> cache = projects;
+        if (cache != null) {
+            cache.invalidate(name);
+        }
+    }
+
+    /**
+     * remove a single process template, e.g. after its workflow was changed
+     *
+     * @param title title of the process template
+     */
+    public static void invalidateProcessTemplate(String title) {
+        TimedCache<String, Integer> cache = processTemplates;
+        if (cache != null) {
+            cache.invalidate(title);
+        }
+    }
+
+    private static void invalidate(TimedCache<String, ?> cache) {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.handlers.ColumnListHandler;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import lombok.extern.log4j.Log4j;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+
+/**
+ * Metadata of the process for a single run of the plugin. The metadata file is read lazily when the first condition needs it and is then shared by
+ * all conditions of this run.
+ * 
+ * Simple variables like {process.X}, {meta.topstruct.X} and {db_meta.X} are answered from the process properties or the metadata table of the
+ * database, so that the metadata file is only read if an expression contains anything else.
+ * 
+ * The conditions of a run may be evaluated in parallel, so all methods are thread safe. The time spent is added to the timings of the condition that
+ * is passed to each call. No journal entries are written here, a failed read is reported by the plugin in the order of the conditions.
+ */
+@Log4j
+public class MetadataContext {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\{([^{}]+)\\}");
+
+    private static final String NOT_INDEXED = new String();
+
+    private final Process process;
+    private final Step step;
+
+    private final Map<String, String> indexedValues = new ConcurrentHashMap<>();
+    /** top struct values read by the streaming reader */
+    private final Map<String, String> streamedValues = new ConcurrentHashMap<>();
+    private volatile boolean streamingFailed = false;
+
+    private volatile boolean loaded = false;
+    private volatile boolean readFailed = false;
+    private Fileformat fileformat;
+    private DigitalDocument digitalDocument;
+    private VariableReplacer replacer;
+
+    public MetadataContext(Process process, Step step) {
+        this.process = process;
+        this.step = step;
+    }
+
+    /**
+     * check if the metadata file was already read during this run
+     *
+     * @return true if the file was read
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * check if the metadata file was read during this run and could not be parsed
+     *
+     * @return true if the file is not readable
+     */
+    public boolean isReadFailed() {
+        return readFailed;
+    }
+
+    /**
+     * get the parsed metadata file, read it on first access. Other threads wait until the file was read.
+     *
+     * @param timings the timings of the current condition
+     * @return the digital document of the process
+     * @throws ReadException
+     * @throws IOException if the metadata file is not readable
+     * @throws SwapException
+     * @throws PreferencesException
+     */
+    public synchronized DigitalDocument getDigitalDocument(ConditionTimings timings)
+            throws ReadException, IOException, SwapException, PreferencesException {
+        if (!loaded) {
+            loaded = true;
+            long start = System.nanoTime();
+            try {
+                fileformat = process.readMetadataFile();
+                if (fileformat == null) {
+                    log.error("Metadata file is not readable for process with ID " + process.getId());
+                    readFailed = true;
+                } else {
+                    digitalDocument = fileformat.getDigitalDocument();
+                }
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                timings.add(ConditionTimings.Phase.METADATA_READ, elapsed);
+                ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.METADATA_READ, elapsed);
+            }
+        }
+        if (digitalDocument == null) {
+            throw new IOException("Metadata file is not readable.");
+        }
+        return digitalDocument;
+    }
+
+    /**
+     * get the VariableReplacer for the process, the metadata file is read if this did not happen yet
+     *
+     * @param timings the timings of the current condition
+     * @return the VariableReplacer
+     * @throws ReadException
+     * @throws IOException
+     * @throws SwapException
+     * @throws PreferencesException
+     */
+    public synchronized VariableReplacer getVariableReplacer(ConditionTimings timings)
+            throws ReadException, IOException, SwapException, PreferencesException {
+        if (replacer == null) {
+            DigitalDocument dd = getDigitalDocument(timings);
+            Prefs prefs = process.getRegelsatz().getPreferences();
+            replacer = new VariableReplacer(dd, prefs, process, step);
+        }
+        return replacer;
+    }
+
+    /**
+     * replace all variables in the given expression. If allowed, the process properties and the metadata table are used for simple variables and
+     * the VariableReplacer is only used if the expression contains any variable that cannot be answered this way.
+     *
+     * @param expression the expression containing Goobi variables
+     * @param useIndex true if the metadata table and the process properties may be used
+     * @param timings the timings of the current condition
+     * @return the expression with all known variables replaced
+     * @throws ReadException
+     * @throws IOException
+     * @throws SwapException
+     * @throws PreferencesException
+     */
+    public String replace(String expression, boolean useIndex, ConditionTimings timings)
+            throws ReadException, IOException, SwapException, PreferencesException {
+        if (useIndex) {
+            long start = System.nanoTime();
+            long sqlBefore = timings.get(ConditionTimings.Phase.SQL);
+            String replaced = replaceFromIndex(expression, timings);
+            long sqlTime = timings.get(ConditionTimings.Phase.SQL) - sqlBefore;
+            timings.add(ConditionTimings.Phase.VARIABLE_REPLACEMENT, System.nanoTime() - start - sqlTime);
+            if (replaced != null) {
+                return replaced;
+            }
+        }
+        VariableReplacer variableReplacer = getVariableReplacer(timings);
+        long start = System.nanoTime();
+        String replaced;
+        // the VariableReplacer is not meant to be shared between threads
+        synchronized (variableReplacer) {
+            replaced = variableReplacer.replace(expression);
+        }
+        timings.add(ConditionTimings.Phase.VARIABLE_REPLACEMENT, System.nanoTime() - start);
+        return replaced;
+    }
+
+    /**
+     * where the values of the variables of an expression come from, ordered by the cost of getting them
+     */
+    public enum Source {
+        /** the process object itself */
+        PROCESS,
+        /** the metadata table of the database */
+        DATABASE,
+        /** the metadata file */
+        METADATA_FILE
+    }
+
+    /**
+     * determine the most expensive source that is needed to replace all variables of the expression, without replacing them
+     *
+     * @param expression the expression containing Goobi variables
+     * @param useIndex true if the metadata table and the process properties may be used
+     * @return the source
+     */
+    public static Source getSource(String expression, boolean useIndex) {
+        if (expression == null) {
+            return Source.PROCESS;
+        }
+        Matcher matcher = VARIABLE.matcher(expression);
+        Source source = Source.PROCESS;
+        while (matcher.find()) {
+            String variable = matcher.group(1);
+            if (!useIndex) {
+                return Source.METADATA_FILE;
+            } else if ("processid".equals(variable) || "processtitle".equals(variable) || variable.startsWith("process.")) {
+                continue;
+            } else if ((variable.startsWith("meta.topstruct.") && !variable.substring("meta.topstruct.".length()).contains("."))
+                    || (variable.startsWith("db_meta.") && !variable.substring("db_meta.".length()).contains("."))) {
+                source = Source.DATABASE;
+            } else {
+                return Source.METADATA_FILE;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * replace all variables of the expression without reading the metadata file
+     *
+     * @param expression the expression containing Goobi variables
+     * @param timings the timings of the current condition
+     * @return the replaced expression or null if at least one variable cannot be answered without the metadata file
+     */
+    private String replaceFromIndex(String expression, ConditionTimings timings) {
+        Matcher matcher = VARIABLE.matcher(expression);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String value = getIndexedValue(matcher.group(1), timings);
+            if (value == NOT_INDEXED) { //NOSONAR: identity check on the marker object is intended
+                return null;
+            }
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(value == null ? matcher.group() : value));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * get the value of a single variable from the process properties or the metadata table
+     *
+     * @param variable the variable name without braces
+     * @param timings the timings of the current condition
+     * @return the value, null if the variable is a process property that does not exist or NOT_INDEXED if the value cannot be determined
+     */
+    private String getIndexedValue(String variable, ConditionTimings timings) {
+        if ("processid".equals(variable)) {
+            return String.valueOf(process.getId());
+        } else if ("processtitle".equals(variable)) {
+            return process.getTitel();
+        } else if (variable.startsWith("process.")) {
+            String propertyName = variable.substring("process.".length());
+            for (GoobiProperty pp : process.getEigenschaften()) {
+                if (pp.getPropertyName().equals(propertyName)) {
+                    return pp.getPropertyValue() == null ? "" : pp.getPropertyValue();
+                }
+            }
+            return null;
+        } else if (variable.startsWith("meta.topstruct.")) {
+            return getValueFromMetadataTable(variable.substring("meta.topstruct.".length()), timings);
+        } else if (variable.startsWith("db_meta.")) {
+            return getValueFromMetadataTable(variable.substring("db_meta.".length()), timings);
+        }
+        return NOT_INDEXED;
+    }
+
+    /**
+     * get the value of a metadata field from the metadata table. The value is only used if the table contains exactly one distinct value, otherwise
+     * the metadata file must decide.
+     *
+     * @param metadataName name of the metadata type
+     * @param timings the timings of the current condition
+     * @return the value or NOT_INDEXED
+     */
+    private String getValueFromMetadataTable(String metadataName, ConditionTimings timings) {
+        if (metadataName.contains(".")) {
+            return NOT_INDEXED;
+        }
+        return indexedValues.computeIfAbsent(metadataName, name -> {
+            long start = System.nanoTime();
+            try {
+                List<String> values = getDistinctMetadataValues(process.getId(), name);
+                return values.size() == 1 ? values.get(0) : NOT_INDEXED;
+            } catch (SQLException e) {
+                log.error(e);
+                return NOT_INDEXED;
+            } finally {
+                timings.add(ConditionTimings.Phase.SQL, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private static List<String> getDistinctMetadataValues(int processId, String name) throws SQLException {
+        String sql = "SELECT DISTINCT value FROM metadata WHERE processid = ? AND name = ? LIMIT 2";
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            return new QueryRunner().query(connection, sql, new ColumnListHandler<String>(1), processId, name);
+        } finally {
+            if (connection != null) {
+                MySQLHelper.closeConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * get the value of the first metadata with the given name from the logical top struct. As long as the metadata file was not read completely, the
+     * value is streamed from the file. The complete file is only read if the streaming reader cannot handle it.
+     *
+     * @param metadataName name of the metadata type
+     * @param timings the timings of the current condition
+     * @return the value or an empty string if the metadata does not exist
+     * @throws ReadException
+     * @throws IOException
+     * @throws SwapException
+     * @throws PreferencesException
+     */
+    public String getTopStructMetadataValue(String metadataName, ConditionTimings timings)
+            throws ReadException, IOException, SwapException, PreferencesException {
+        if (!loaded && !streamingFailed) {
+            String value = streamTopStructMetadataValue(metadataName, timings);
+            if (value != null) {
+                return value;
+            }
+        }
+        DocStruct logical = getDigitalDocument(timings).getLogicalDocStruct();
+        if (logical.getAllMetadata() != null) {
+            for (Metadata md : logical.getAllMetadata()) {
+                if (md.getType().getName().equals(metadataName)) {
+                    return md.getValue();
+                }
+            }
+        }
+        return "";
+    }
+
+    private String streamTopStructMetadataValue(String metadataName, ConditionTimings timings) throws IOException, SwapException {
+        String value = streamedValues.get(metadataName);
+        if (value == null) {
+            long start = System.nanoTime();
+            try {
+                value = TopStructMetadataReader.readValue(Paths.get(process.getMetadataFilePath()), metadataName);
+            } finally {
+                timings.add(ConditionTimings.Phase.METADATA_READ, System.nanoTime() - start);
+            }
+            if (value == null) {
+                // the file is not supported, don't try again for other metadata
+                streamingFailed = true;
+                return null;
+            }
+            streamedValues.put(metadataName, value);
+        }
+        return value;
+    }
+}
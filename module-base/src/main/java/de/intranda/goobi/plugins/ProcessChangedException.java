@@ -0,0 +1,34 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown if a step or the process was changed in the database after it was loaded for the current run, so that the changes of the run must not be
+ * written.
+ */
+public class ProcessChangedException extends SQLException {
+
+    private static final long serialVersionUID = -2868423364981735016L;
+
+    public ProcessChangedException(String message) {
+        super(message);
+    }
+
+    /**
+     * check the update counts of a batch whose statements only match rows that still have the values the run loaded
+     *
+     * @param counts the update counts of the batch
+     * @param rows the parameters of the batch
+     * @param idIndex position of the id of the changed row within the parameters
+     * @param subject description of the changed rows, used in the message
+     * @throws ProcessChangedException if a statement did not change any row
+     */
+    static void checkUpdated(int[] counts, Object[][] rows, int idIndex, String subject) throws ProcessChangedException {
+        for (int i = 0; i < counts.length; ++i) {
+            // drivers that rewrite batches may not report the count of each statement, only a missing row is a conflict
+            if (counts[i] == 0) {
+                throw new ProcessChangedException(subject + " " + rows[i][idIndex] + " was changed concurrently");
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.enums.StepStatus;
+
+/**
+ * Tracks which fields of the process and its steps were changed by a run, so that only these columns are written instead of saving the whole
+ * process with all steps. If the workflow itself was changed, e.g. by switching the template of a process that was not saved yet, the process must
+ * be saved completely.
+ *
+ * The updates only change a column if it still has the value it had when the process was loaded. If another run or a user changed it in the
+ * meantime, a ProcessChangedException is thrown and the transaction must be rolled back. A column without value is compared with IS NULL.
+ */
+public class ProcessChanges {
+
+    private static final String UPDATE_STATUS = "UPDATE schritte SET Bearbeitungsstatus = ? WHERE SchritteID = ? AND Bearbeitungsstatus = ?";
+    private static final String UPDATE_PRIORITY = "UPDATE schritte SET Prioritaet = ? WHERE SchritteID = ? AND Prioritaet = ?";
+    private static final String UPDATE_PROJECT = "UPDATE prozesse SET ProjekteID = ? WHERE ProzesseID = ? AND ProjekteID = ?";
+    private static final String UPDATE_STATUS_EMPTY = "UPDATE schritte SET Bearbeitungsstatus = ? WHERE SchritteID = ? AND Bearbeitungsstatus IS NULL";
+    private static final String UPDATE_PRIORITY_EMPTY = "UPDATE schritte SET Prioritaet = ? WHERE SchritteID = ? AND Prioritaet IS NULL";
+    private static final String UPDATE_PROJECT_EMPTY = "UPDATE prozesse SET ProjekteID = ? WHERE ProzesseID = ? AND ProjekteID IS NULL";
+
+    private final List<Object[]> statusUpdates = new ArrayList<>();
+    private final List<Object[]> priorityUpdates = new ArrayList<>();
+    private Object[] projectUpdate;
+    private boolean fullSaveRequired = false;
+    /** new steps that are inserted after the transaction, their changes are written with them */
+    private final Set<Step> insertedSteps = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * set the status of a step and record the change if the status is different
+     *
+     * @param step the step
+     * @param status the new status
+     */
+    public void changeStatus(Step step, StepStatus status) {
+        Integer oldStatus = step.getBearbeitungsstatus();
+        if (Objects.equals(oldStatus, status.getValue())) {
+            return;
+        }
+        step.setBearbeitungsstatusEnum(status);
+        if (step.getId() == null) {
+            fullSaveRequired |= !insertedSteps.contains(step);
+        } else {
+            statusUpdates.add(new Object[] { status.getValue(), step.getId(), oldStatus });
+        }
+    }
+
+    /**
+     * set the priority of a step and record the change if the priority is different
+     *
+     * @param step the step
+     * @param priority the new priority
+     */
+    public void changePriority(Step step, int priority) {
+        Integer oldPriority = step.getPrioritaet();
+        if (Objects.equals(oldPriority, priority)) {
+            return;
+        }
+        step.setPrioritaet(priority);
+        if (step.getId() == null) {
+            fullSaveRequired |= !insertedSteps.contains(step);
+        } else {
+            priorityUpdates.add(new Object[] { priority, step.getId(), oldPriority });
+        }
+    }
+
+    /**
+     * assign the process to another project
+     *
+     * @param process the process
+     * @param project the new project
+     */
+    public void changeProject(Process process, Project project) {
+        Integer oldProjectId = process.getProjectId();
+        if (Objects.equals(oldProjectId, project.getId())) {
+            return;
+        }
+        process.setProjekt(project);
+        process.setProjectId(project.getId());
+        if (process.getId() == null) {
+            fullSaveRequired = true;
+        } else {
+            if (projectUpdate != null) {
+                // the project was already changed in this run, the database still has the first one
+                oldProjectId = (Integer) projectUpdate[2];
+            }
+            projectUpdate = new Object[] { project.getId(), process.getId(), oldProjectId };
+        }
+    }
+
+    /**
+     * register steps without id that are inserted separately, changes of these steps are only done in memory
+     *
+     * @param steps the new steps
+     */
+    public void addInsertedSteps(List<Step> steps) {
+        insertedSteps.addAll(steps);
+    }
+
+    /**
+     * mark that the process must be saved completely, e.g. because its steps were replaced
+     */
+    public void requireFullSave() {
+        fullSaveRequired = true;
+    }
+
+    public boolean isFullSaveRequired() {
+        return fullSaveRequired;
+    }
+
+    public boolean isEmpty() {
+        return statusUpdates.isEmpty() && priorityUpdates.isEmpty() && projectUpdate == null;
+    }
+
+    /**
+     * write the changed columns using the given connection and forget them. If the process must be saved completely, nothing is written here.
+     *
+     * @param connection the connection of the current unit of work
+     * @throws ProcessChangedException if a column was changed by someone else since the process was loaded
+     * @throws SQLException
+     */
+    public void write(Connection connection) throws SQLException {
+        if (!fullSaveRequired) {
+            QueryRunner run = new QueryRunner();
+            batch(run, connection, UPDATE_STATUS, UPDATE_STATUS_EMPTY, statusUpdates, "status of step");
+            batch(run, connection, UPDATE_PRIORITY, UPDATE_PRIORITY_EMPTY, priorityUpdates, "priority of step");
+            if (projectUpdate != null) {
+                int count;
+                if (projectUpdate[2] == null) {
+                    count = run.update(connection, UPDATE_PROJECT_EMPTY, projectUpdate[0], projectUpdate[1]);
+                } else {
+                    count = run.update(connection, UPDATE_PROJECT, projectUpdate);
+                }
+                if (count == 0) {
+                    throw new ProcessChangedException("project of process " + projectUpdate[1] + " was changed concurrently");
+                }
+            }
+        }
+        statusUpdates.clear();
+        priorityUpdates.clear();
+        insertedSteps.clear();
+        projectUpdate = null;
+    }
+
+    /**
+     * write the updates of a column as two batches, one for the rows whose old value is known and one for the rows whose old value is empty
+     *
+     * @param updates the new value, the id and the old value of each row
+     */
+    private static void batch(QueryRunner run, Connection connection, String sql, String emptySql, List<Object[]> updates, String subject)
+            throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        List<Object[]> emptyRows = new ArrayList<>();
+        for (Object[] update : updates) {
+            if (update[2] == null) {
+                emptyRows.add(new Object[] { update[0], update[1] });
+            } else {
+                rows.add(update);
+            }
+        }
+        if (!rows.isEmpty()) {
+            Object[][] params = rows.toArray(new Object[rows.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, sql, params), params, 1, subject);
+        }
+        if (!emptyRows.isEmpty()) {
+            Object[][] params = emptyRows.toArray(new Object[emptyRows.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, emptySql, params), params, 1, subject);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks for the processes, so that two runs cannot evaluate and save the same process at the same time. A fixed number of locks is shared
+ * by all processes, runs for different processes only wait for each other if their ids fall on the same stripe.
+ *
+ * The locks only protect the runs within this application. Changes done elsewhere are detected by the conditional updates of ProcessChanges.
+ */
+public class ProcessLocks {
+
+    static final int STRIPES = 256;
+
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; ++i) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private ProcessLocks() {
+        // static access only
+    }
+
+    /**
+     * acquire the lock of the given process, the time spent waiting for it is recorded in the metrics
+     *
+     * @param processId id of the process
+     * @return the acquired lock, to be released by the caller
+     */
+    public static Lock lock(Integer processId) {
+        Lock lock = LOCKS[getStripe(processId)];
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.LOCK_WAIT, System.nanoTime() - start);
+        }
+        return lock;
+    }
+
+    /**
+     * acquire the locks of all given processes. Each stripe is locked once and the stripes are always locked in the same order, so that two callers
+     * with overlapping processes cannot deadlock.
+     *
+     * @param processIds ids of the processes
+     * @return the acquired locks, to be released by the caller with {@link #unlockAll(List)}
+     */
+    public static List<Lock> lockAll(List<Integer> processIds) {
+        BitSet stripes = new BitSet(STRIPES);
+        for (Integer processId : processIds) {
+            stripes.set(getStripe(processId));
+        }
+        List<Lock> locks = new ArrayList<>(stripes.cardinality());
+        long start = System.nanoTime();
+        boolean waited = false;
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            Lock lock = LOCKS[stripe];
+            if (!lock.tryLock()) {
+                waited = true;
+                lock.lock();
+            }
+            locks.add(lock);
+        }
+        if (waited) {
+            ChangeWorkflowMetrics.getInstance().record(ChangeWorkflowMetrics.Timer.LOCK_WAIT, System.nanoTime() - start);
+        }
+        return locks;
+    }
+
+    /**
+     * release the locks acquired by {@link #lockAll(List)}
+     *
+     * @param locks the acquired locks
+     */
+    public static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; --i) {
+            locks.get(i).unlock();
+        }
+    }
+
+    static int getStripe(Integer processId) {
+        if (processId == null) {
+            return 0;
+        }
+        // spread consecutive ids over all stripes
+        int hash = processId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,163 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.GoobiProperty.PropertyOwnerType;
+import org.goobi.beans.Process;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Collects the property changes of a process. The configured changes are reduced to one change per property name, properties that already have
+ * the expected value are skipped. Updates and deletions of existing properties are written as batches within the transaction of the run, new
+ * properties are inserted with the same connection and get their generated ids.
+ */
+@Log4j
+public class PropertyChanges {
+
+    private static final String UPDATE = "UPDATE properties SET property_value = ? WHERE id = ? AND property_value = ?";
+    private static final String UPDATE_EMPTY = "UPDATE properties SET property_value = ? WHERE id = ? AND property_value IS NULL";
+    private static final String DELETE = "DELETE FROM properties WHERE id = ? AND property_value = ?";
+    private static final String DELETE_EMPTY = "DELETE FROM properties WHERE id = ? AND property_value IS NULL";
+    private static final String INSERT = "INSERT INTO properties (property_name, property_value, required, object_id, object_type, creation_date) "
+            + "VALUES (?, ?, ?, ?, 'process', ?)";
+
+    /** new values of the changed properties by id */
+    private final Map<Integer, String> updates = new LinkedHashMap<>();
+    /** ids of the deleted properties */
+    private final Set<Integer> deletions = new LinkedHashSet<>();
+    /** values the changed and deleted properties had when the process was loaded */
+    private final Map<Integer, String> oldValues = new HashMap<>();
+    private final List<GoobiProperty> newProperties = new ArrayList<>();
+    /** id of the process that owns the new properties */
+    private Integer processId;
+
+    /**
+     * apply the configured property changes to the process and record the necessary database changes
+     *
+     * @param process the Goobi process
+     * @param propertyChanges the configured properties to be changed, in configuration order
+     */
+    public void apply(Process process, List<ChangeRule.PropertyChange> propertyChanges) {
+        if (propertyChanges.isEmpty()) {
+            return;
+        }
+        processId = process.getId();
+        // the last change of a property wins
+        Map<String, ChangeRule.PropertyChange> changesByName = new LinkedHashMap<>();
+        for (ChangeRule.PropertyChange prop : propertyChanges) {
+            changesByName.remove(prop.getName());
+            changesByName.put(prop.getName(), prop);
+        }
+        // the first property with the name is changed
+        Map<String, GoobiProperty> existing = new HashMap<>();
+        for (GoobiProperty pp : process.getEigenschaften()) {
+            existing.putIfAbsent(pp.getPropertyName(), pp);
+        }
+
+        for (ChangeRule.PropertyChange prop : changesByName.values()) {
+            GoobiProperty pp = existing.get(prop.getName());
+            if (prop.isDelete()) {
+                if (pp != null) {
+                    process.getEigenschaften().remove(pp);
+                    if (pp.getId() != null) {
+                        oldValues.putIfAbsent(pp.getId(), pp.getPropertyValue());
+                        updates.remove(pp.getId());
+                        deletions.add(pp.getId());
+                    }
+                }
+            } else if (pp == null) {
+                pp = new GoobiProperty(PropertyOwnerType.PROCESS);
+                pp.setPropertyName(prop.getName());
+                pp.setPropertyValue(prop.getValue());
+                pp.setOwner(process);
+                newProperties.add(pp);
+            } else if (!Objects.equals(pp.getPropertyValue(), prop.getValue())) {
+                if (pp.getId() != null) {
+                    // the property may already have been changed by an earlier call, the database still has the first value
+                    oldValues.putIfAbsent(pp.getId(), pp.getPropertyValue());
+                    updates.put(pp.getId(), prop.getValue());
+                }
+                pp.setPropertyValue(prop.getValue());
+                pp.setOwner(process);
+                if (pp.getId() == null) {
+                    newProperties.add(pp);
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return updates.isEmpty() && deletions.isEmpty() && newProperties.isEmpty();
+    }
+
+    /**
+     * write the recorded updates, deletions and new properties using the given connection and forget them. A property is only changed if it still
+     * has the value it had when the process was loaded. The new properties get the ids generated by the database.
+     *
+     * @param connection the connection of the current unit of work
+     * @throws ProcessChangedException if a property was changed by someone else since the process was loaded
+     * @throws SQLException
+     */
+    public void write(Connection connection) throws SQLException {
+        QueryRunner run = new QueryRunner();
+        List<Object[]> updateRows = new ArrayList<>();
+        List<Object[]> emptyUpdateRows = new ArrayList<>();
+        for (Map.Entry<Integer, String> update : updates.entrySet()) {
+            String oldValue = oldValues.get(update.getKey());
+            if (oldValue == null) {
+                emptyUpdateRows.add(new Object[] { update.getValue(), update.getKey() });
+            } else {
+                updateRows.add(new Object[] { update.getValue(), update.getKey(), oldValue });
+            }
+        }
+        List<Object[]> deleteRows = new ArrayList<>();
+        List<Object[]> emptyDeleteRows = new ArrayList<>();
+        for (Integer id : deletions) {
+            String oldValue = oldValues.get(id);
+            if (oldValue == null) {
+                emptyDeleteRows.add(new Object[] { id });
+            } else {
+                deleteRows.add(new Object[] { id, oldValue });
+            }
+        }
+        batch(run, connection, UPDATE, updateRows, 1);
+        batch(run, connection, UPDATE_EMPTY, emptyUpdateRows, 1);
+        batch(run, connection, DELETE, deleteRows, 0);
+        batch(run, connection, DELETE_EMPTY, emptyDeleteRows, 0);
+        Timestamp created = new Timestamp(System.currentTimeMillis());
+        for (GoobiProperty pp : newProperties) {
+            log.debug("creating property " + pp.getPropertyName());
+            Number id = run.insert(connection, INSERT, new ScalarHandler<Number>(), pp.getPropertyName(), pp.getPropertyValue(), false,
+                    processId, created);
+            if (id == null) {
+                throw new SQLException("Cannot create property " + pp.getPropertyName());
+            }
+            pp.setId(id.intValue());
+        }
+        updates.clear();
+        deletions.clear();
+        oldValues.clear();
+        newProperties.clear();
+    }
+
+    private static void batch(QueryRunner run, Connection connection, String sql, List<Object[]> rows, int idIndex) throws SQLException {
+        if (!rows.isEmpty()) {
+            Object[][] params = rows.toArray(new Object[rows.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, sql, params), params, idIndex, "property");
+        }
+    }
+}
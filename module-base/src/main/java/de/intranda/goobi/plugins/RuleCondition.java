@@ -0,0 +1,179 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.helper.enums.StepStatus;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Immutable, pre-parsed condition of a &lt;change&gt; element. A condition is either a single check (property, search, checkDuplicates or step) or
+ * a combination of other conditions (and, or, not) that are configured as &lt;check&gt; elements. The parts of a combination are ordered by their
+ * estimated cost, so that cheap checks are evaluated first and expensive checks are skipped if the result is already known.
+ */
+@Getter
+@Log4j
+public class RuleCondition {
+
+    /** estimated costs of the different checks */
+    static final int COST_STEP = 0;
+    static final int COST_PROCESS = 1;
+    static final int COST_DATABASE = 2;
+    static final int COST_METADATA_FILE = 5;
+    static final int COST_SEARCH = 10;
+    static final int COST_DUPLICATES = 15;
+
+    private final String type;
+
+    // property
+    private final String propertyName;
+    private final String propertyValue;
+    private final String propertyCondition;
+    /** all configured values, used by the condition 'in' */
+    private final List<String> propertyValues;
+    private final ConditionMatcher conditionMatcher;
+    private final boolean useMetadataIndex;
+
+    // search
+    private final String query;
+    private final String searchCondition;
+    /** cache for the results of the search query, null if caching is disabled */
+    private final TimedCache<String, Boolean> searchResultCache;
+
+    // checkDuplicates
+    private final String duplicateMetadata;
+
+    // step
+    private final String stepTitle;
+    private final StepStatus stepStatus;
+
+    // and, or, not
+    private final List<RuleCondition> children;
+
+    private final int cost;
+
+    private RuleCondition(HierarchicalConfiguration config) {
+        type = config.getString("@type", "property");
+        useMetadataIndex = config.getBoolean("./useMetadataIndex", false);
+
+        propertyName = config.getString("./propertyName");
+        propertyValue = config.getString("./propertyValue", "");
+        propertyCondition = config.getString("./propertyCondition", "is");
+        propertyValues = Collections.unmodifiableList(Arrays.asList(config.getStringArray("./propertyValue")));
+        conditionMatcher = "property".equals(type)
+                ? ConditionMatcher.compile(propertyCondition, propertyValues.isEmpty() ? Collections.singletonList("") : propertyValues)
+                : null;
+
+        query = config.getString("./query");
+        searchCondition = config.getString("./condition", "exists");
+        int searchCacheTtl = config.getInt("./cache/@ttl", 0);
+        if (searchCacheTtl > 0) {
+            searchResultCache = new TimedCache<>(searchCacheTtl * 1000L, config.getInt("./cache/@size", 1000));
+        } else {
+            searchResultCache = null;
+        }
+
+        duplicateMetadata = config.getString("/metadata");
+
+        stepTitle = config.getString("./title");
+        stepStatus = parseStepStatus(config.getString("./status", "done"));
+
+        List<RuleCondition> childList = new ArrayList<>();
+        if ("and".equals(type) || "or".equals(type) || "not".equals(type)) {
+            for (HierarchicalConfiguration check : config.configurationsAt("./check")) {
+                childList.add(new RuleCondition(check));
+            }
+            if ("not".equals(type) && childList.size() != 1) {
+                log.error("A condition of type 'not' needs exactly one <check> element, it never matches");
+            }
+            // cheap checks first, the order of the configuration is kept for checks with the same cost
+            childList.sort(Comparator.comparingInt(RuleCondition::getCost));
+        }
+        children = Collections.unmodifiableList(childList);
+        cost = estimateCost();
+    }
+
+    /**
+     * parse the condition of a &lt;change&gt; or &lt;check&gt; element
+     *
+     * @param config the configuration of the element
+     * @return the compiled condition
+     */
+    public static RuleCondition fromConfiguration(HierarchicalConfiguration config) {
+        return new RuleCondition(config);
+    }
+
+    private static StepStatus parseStepStatus(String status) {
+        try {
+            return StepStatus.valueOf(status.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.error("Unknown step status '" + status + "', using 'done'");
+            return StepStatus.DONE;
+        }
+    }
+
+    private int estimateCost() {
+        switch (type) {
+            case "step":
+                return COST_STEP;
+            case "property":
+                switch (MetadataContext.getSource(propertyName, useMetadataIndex)) {
+                    case PROCESS:
+                        return COST_PROCESS;
+                    case DATABASE:
+                        return COST_DATABASE;
+                    default:
+                        return COST_METADATA_FILE;
+                }
+            case "search":
+                return COST_SEARCH;
+            case "checkDuplicates":
+                return COST_DUPLICATES;
+            case "and":
+            case "or":
+            case "not":
+                int sum = 0;
+                for (RuleCondition child : children) {
+                    sum += child.getCost();
+                }
+                return sum;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case "property":
+                return propertyName + " " + conditionMatcher;
+            case "search":
+                return searchCondition + " " + StringUtils.abbreviate(query, 200);
+            case "checkDuplicates":
+                return "checkDuplicates " + duplicateMetadata;
+            case "step":
+                return "step '" + stepTitle + "' is " + stepStatus.name().toLowerCase(Locale.ENGLISH);
+            case "and":
+            case "or":
+            case "not":
+                StringBuilder sb = new StringBuilder(type).append('(');
+                for (int i = 0; i < children.size(); ++i) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(children.get(i));
+                }
+                return sb.append(')').toString();
+            default:
+                return type;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.beans.User;
+
+import de.sub.goobi.helper.BeanHelper;
+import de.sub.goobi.helper.enums.StepStatus;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Switch of the process template that keeps the steps the process has in common with the new template. A step with the same title, order and
+ * settings as a step of the template is updated in place: its status, priority and user groups are recorded in the ProcessChanges and
+ * UsergroupChanges of the run. Only the steps that are missing in the process are inserted and only the steps that are not part of the template
+ * anymore are deleted. Both is done within the unit of work of the run.
+ *
+ * As with a complete switch, a step that was already finished keeps its status, dates and user. A step that is not finished, but was already
+ * worked on, is replaced by a new step, so that it does not keep the user, dates and edit type of its earlier processing.
+ */
+@Log4j
+public class TemplateSwitch {
+
+    private static final String DELETE_USERGROUPS = "DELETE FROM schritteberechtigtegruppen WHERE schritteID = ?";
+    private static final String DELETE_USERS = "DELETE FROM schritteberechtigtebenutzer WHERE schritteID = ?";
+    private static final String DELETE_STEP = "DELETE FROM schritte WHERE SchritteID = ? AND Bearbeitungsstatus = ?";
+    private static final String DELETE_STEP_EMPTY = "DELETE FROM schritte WHERE SchritteID = ? AND Bearbeitungsstatus IS NULL";
+    private static final String INSERT_USERGROUP = "INSERT INTO schritteberechtigtegruppen (BenutzerGruppenID, schritteID) VALUES (?, ?)";
+    private static final String INSERT_USER = "INSERT INTO schritteberechtigtebenutzer (BenutzerID, schritteID) VALUES (?, ?)";
+    private static final String INSERT_STEP = "INSERT INTO schritte (Titel, Prioritaet, Reihenfolge, Bearbeitungsstatus, BearbeitungsZeitpunkt, "
+            + "BearbeitungsBeginn, BearbeitungsEnde, BearbeitungsBenutzerID, edittype, homeverzeichnisNutzen, typMetadaten, typAutomatisch, "
+            + "typImportFileUpload, typExportRus, typImagesLesen, typImagesSchreiben, typExportDMS, typBeimAnnehmenModul, "
+            + "typBeimAnnehmenAbschliessen, typBeimAnnehmenModulUndAbschliessen, typBeimAbschliessenVerifizieren, typModulName, typScriptStep, "
+            + "scriptName1, typAutomatischScriptpfad, scriptName2, typAutomatischScriptpfad2, scriptName3, typAutomatischScriptpfad3, scriptName4, "
+            + "typAutomatischScriptpfad4, scriptName5, typAutomatischScriptpfad5, ProzesseID, batchStep, stepPlugin, validationPlugin, delayStep, "
+            + "updateMetadataIndex, generateDocket, httpStep, httpMethod, httpUrl, httpJsonBody, httpCloseStep, httpEscapeBodyJson, messageQueue) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+            + "?, ?, ?, ?)";
+
+    /** steps of the new workflow that do not exist in the database yet */
+    @Getter
+    private final List<Step> insertedSteps = new ArrayList<>();
+    /** steps of the old workflow that are not part of the new one */
+    @Getter
+    private final List<Step> deletedSteps = new ArrayList<>();
+
+    /**
+     * change the steps of the process to the steps of the template
+     *
+     * @param process the Goobi process
+     * @param template the new process template
+     * @param processChanges records status and priority changes of the kept steps
+     * @param usergroupChanges records user group changes of the kept steps
+     * @param propertyChanges records the changes of the template properties
+     */
+    public void apply(Process process, Process template, ProcessChanges processChanges, UsergroupChanges usergroupChanges,
+            PropertyChanges propertyChanges) {
+        List<Step> oldSteps = new ArrayList<>(process.getSchritteList());
+
+        // create copies of all template steps, like a complete switch does
+        process.setSchritte(new ArrayList<>());
+        new BeanHelper().copyTasks(template, process);
+        List<Step> copies = new ArrayList<>(process.getSchritte());
+
+        Map<String, Step> oldStepsByKey = new LinkedHashMap<>();
+        Map<String, Step> finishedStepsByTitle = new HashMap<>();
+        for (Step oldStep : oldSteps) {
+            oldStepsByKey.putIfAbsent(getKey(oldStep), oldStep);
+            if (oldStep.getBearbeitungsstatusEnum() == StepStatus.DONE) {
+                finishedStepsByTitle.putIfAbsent(oldStep.getTitel(), oldStep);
+            }
+        }
+
+        List<Step> newSteps = new ArrayList<>(copies.size());
+        for (Step copy : copies) {
+            Step oldStep = oldStepsByKey.remove(getKey(copy));
+            if (oldStep != null && hasSameSettings(oldStep, copy) && !hasProcessingData(oldStep, copy)) {
+                // keep the step and its id, only update what the template defines
+                if (oldStep.getBearbeitungsstatusEnum() != StepStatus.DONE) {
+                    processChanges.changeStatus(oldStep, copy.getBearbeitungsstatusEnum());
+                }
+                if (copy.getPrioritaet() != null) {
+                    processChanges.changePriority(oldStep, copy.getPrioritaet());
+                }
+                usergroupChanges.changeStep(oldStep,
+                        copy.getBenutzergruppen() == null ? new ArrayList<>() : new ArrayList<>(copy.getBenutzergruppen()));
+                newSteps.add(oldStep);
+            } else {
+                if (oldStep != null) {
+                    deletedSteps.add(oldStep);
+                }
+                Step finished = finishedStepsByTitle.get(copy.getTitel());
+                if (finished != null) {
+                    copy.setBearbeitungsbeginn(finished.getBearbeitungsbeginn());
+                    copy.setBearbeitungsende(finished.getBearbeitungsende());
+                    copy.setBearbeitungsstatusEnum(finished.getBearbeitungsstatusEnum());
+                    copy.setBearbeitungsbenutzer(finished.getBearbeitungsbenutzer());
+                }
+                insertedSteps.add(copy);
+                newSteps.add(copy);
+            }
+        }
+        deletedSteps.addAll(oldStepsByKey.values());
+        process.setSchritte(newSteps);
+        processChanges.addInsertedSteps(insertedSteps);
+
+        // the template properties are updated if the process has them
+        List<ChangeRule.PropertyChange> templateProperties = new ArrayList<>();
+        for (GoobiProperty property : process.getEigenschaften()) {
+            if ("Template".equals(property.getPropertyName())) {
+                templateProperties.add(new ChangeRule.PropertyChange("Template", template.getTitel(), false));
+            } else if ("TemplateID".equals(property.getPropertyName())) {
+                templateProperties.add(new ChangeRule.PropertyChange("TemplateID", String.valueOf(template.getId()), false));
+            }
+        }
+        propertyChanges.apply(process, templateProperties);
+
+        log.debug("switched process " + process.getId() + " to template " + template.getTitel() + ": " + (newSteps.size() - insertedSteps.size())
+                + " steps kept, " + insertedSteps.size() + " inserted, " + deletedSteps.size() + " deleted");
+    }
+
+    /**
+     * check if anything was changed that is not covered by the ProcessChanges and UsergroupChanges
+     *
+     * @return true if steps must be inserted or deleted
+     */
+    public boolean isEmpty() {
+        return insertedSteps.isEmpty() && deletedSteps.isEmpty();
+    }
+
+    /**
+     * insert the new steps and delete the removed steps together with their user and user group assignments using the given connection. The new
+     * steps get the ids generated by the database. A step is only deleted if it still has the status it had when the process was loaded.
+     *
+     * @param connection the connection of the current unit of work
+     * @throws ProcessChangedException if a deleted step was changed by someone else since the process was loaded
+     * @throws SQLException
+     */
+    public void write(Connection connection) throws SQLException {
+        QueryRunner run = new QueryRunner();
+        for (Step newStep : insertedSteps) {
+            insertStep(run, connection, newStep);
+        }
+        List<Object[]> steps = new ArrayList<>(deletedSteps.size());
+        List<Object[]> emptySteps = new ArrayList<>();
+        List<Object[]> ids = new ArrayList<>(deletedSteps.size());
+        for (Step oldStep : deletedSteps) {
+            if (oldStep.getId() != null) {
+                if (oldStep.getBearbeitungsstatus() == null) {
+                    emptySteps.add(new Object[] { oldStep.getId() });
+                } else {
+                    steps.add(new Object[] { oldStep.getId(), oldStep.getBearbeitungsstatus() });
+                }
+                ids.add(new Object[] { oldStep.getId() });
+            }
+        }
+        if (!ids.isEmpty()) {
+            deleteSteps(run, connection, DELETE_STEP, steps);
+            deleteSteps(run, connection, DELETE_STEP_EMPTY, emptySteps);
+            Object[][] idRows = ids.toArray(new Object[ids.size()][]);
+            run.batch(connection, DELETE_USERGROUPS, idRows);
+            run.batch(connection, DELETE_USERS, idRows);
+        }
+        insertedSteps.clear();
+        deletedSteps.clear();
+    }
+
+    private static void deleteSteps(QueryRunner run, Connection connection, String sql, List<Object[]> steps) throws SQLException {
+        if (!steps.isEmpty()) {
+            Object[][] rows = steps.toArray(new Object[steps.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, sql, rows), rows, 0, "step");
+        }
+    }
+
+    /**
+     * insert a step with the columns StepManager writes and assign its user groups and users
+     */
+    private static void insertStep(QueryRunner run, Connection connection, Step step) throws SQLException {
+        User user = step.getBearbeitungsbenutzer();
+        Object[] params = new Object[] { step.getTitel(), step.getPrioritaet(), step.getReihenfolge(), step.getBearbeitungsstatus(),
+                toTimestamp(step.getBearbeitungszeitpunkt()), toTimestamp(step.getBearbeitungsbeginn()), toTimestamp(step.getBearbeitungsende()),
+                user == null ? null : user.getId(), step.getEditTypeEnum() == null ? null : step.getEditTypeEnum().getValue(),
+                step.getHomeverzeichnisNutzen(), step.isTypMetadaten(), step.isTypAutomatisch(), step.isTypImportFileUpload(), step.isTypExportRus(),
+                step.isTypImagesLesen(), step.isTypImagesSchreiben(), step.isTypExportDMS(), step.isTypBeimAnnehmenModul(),
+                step.isTypBeimAnnehmenAbschliessen(), step.isTypBeimAnnehmenModulUndAbschliessen(), step.isTypBeimAbschliessenVerifizieren(),
+                step.getTypModulName(), step.getTypScriptStep(), step.getScriptname1(), step.getTypAutomatischScriptpfad(), step.getScriptname2(),
+                step.getTypAutomatischScriptpfad2(), step.getScriptname3(), step.getTypAutomatischScriptpfad3(), step.getScriptname4(),
+                step.getTypAutomatischScriptpfad4(), step.getScriptname5(), step.getTypAutomatischScriptpfad5(), step.getProzess().getId(),
+                step.getBatchStep(), step.getStepPlugin(), step.getValidationPlugin(), step.isDelayStep(), step.isUpdateMetadataIndex(),
+                step.isGenerateDocket(), step.isHttpStep(), step.getHttpMethod(), step.getHttpUrl(), step.getHttpJsonBody(), step.isHttpCloseStep(),
+                step.isHttpEscapeBodyJson(), Objects.toString(step.getMessageQueue(), null) };
+        Number id = run.insert(connection, INSERT_STEP, new ScalarHandler<Number>(), params);
+        if (id == null) {
+            throw new SQLException("Cannot create step " + step.getTitel());
+        }
+        step.setId(id.intValue());
+
+        if (step.getBenutzergruppen() != null && !step.getBenutzergruppen().isEmpty()) {
+            Object[][] rows = new Object[step.getBenutzergruppen().size()][];
+            for (int i = 0; i < rows.length; ++i) {
+                rows[i] = new Object[] { step.getBenutzergruppen().get(i).getId(), step.getId() };
+            }
+            run.batch(connection, INSERT_USERGROUP, rows);
+        }
+        if (step.getBenutzer() != null && !step.getBenutzer().isEmpty()) {
+            Object[][] rows = new Object[step.getBenutzer().size()][];
+            for (int i = 0; i < rows.length; ++i) {
+                rows[i] = new Object[] { step.getBenutzer().get(i).getId(), step.getId() };
+            }
+            run.batch(connection, INSERT_USER, rows);
+        }
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    private static String getKey(Step step) {
+        return step.getTitel() + '\u0000' + step.getReihenfolge();
+    }
+
+    /**
+     * check if a step that is not finished has a user, dates or an edit type of an earlier processing. Such a step is replaced by a new one.
+     */
+    private static boolean hasProcessingData(Step oldStep, Step templateStep) {
+        if (oldStep.getBearbeitungsstatusEnum() == StepStatus.DONE) {
+            return false;
+        }
+        return oldStep.getBearbeitungsbenutzer() != null || oldStep.getBearbeitungsbeginn() != null || oldStep.getBearbeitungsende() != null
+                || !Objects.equals(oldStep.getEditTypeEnum(), templateStep.getEditTypeEnum());
+    }
+
+    /**
+     * check if the step of the process does the same as the step of the template, otherwise it is replaced. All settings that BeanHelper copies
+     * from the template are compared, except for the status, priority and user groups, which are updated in place.
+     */
+    private static boolean hasSameSettings(Step oldStep, Step templateStep) {
+        return Objects.equals(oldStep.isTypAutomatisch(), templateStep.isTypAutomatisch())
+                && Objects.equals(oldStep.isTypMetadaten(), templateStep.isTypMetadaten())
+                && Objects.equals(oldStep.isTypImportFileUpload(), templateStep.isTypImportFileUpload())
+                && Objects.equals(oldStep.isTypExportRus(), templateStep.isTypExportRus())
+                && Objects.equals(oldStep.isTypImagesLesen(), templateStep.isTypImagesLesen())
+                && Objects.equals(oldStep.isTypImagesSchreiben(), templateStep.isTypImagesSchreiben())
+                && Objects.equals(oldStep.isTypExportDMS(), templateStep.isTypExportDMS())
+                && Objects.equals(oldStep.isTypBeimAnnehmenModul(), templateStep.isTypBeimAnnehmenModul())
+                && Objects.equals(oldStep.isTypBeimAnnehmenAbschliessen(), templateStep.isTypBeimAnnehmenAbschliessen())
+                && Objects.equals(oldStep.isTypBeimAnnehmenModulUndAbschliessen(), templateStep.isTypBeimAnnehmenModulUndAbschliessen())
+                && Objects.equals(oldStep.isTypBeimAbschliessenVerifizieren(), templateStep.isTypBeimAbschliessenVerifizieren())
+                && Objects.equals(oldStep.getTypModulName(), templateStep.getTypModulName())
+                && Objects.equals(oldStep.getTypScriptStep(), templateStep.getTypScriptStep())
+                && Objects.equals(oldStep.getScriptname1(), templateStep.getScriptname1())
+                && Objects.equals(oldStep.getTypAutomatischScriptpfad(), templateStep.getTypAutomatischScriptpfad())
+                && Objects.equals(oldStep.getScriptname2(), templateStep.getScriptname2())
+                && Objects.equals(oldStep.getTypAutomatischScriptpfad2(), templateStep.getTypAutomatischScriptpfad2())
+                && Objects.equals(oldStep.getScriptname3(), templateStep.getScriptname3())
+                && Objects.equals(oldStep.getTypAutomatischScriptpfad3(), templateStep.getTypAutomatischScriptpfad3())
+                && Objects.equals(oldStep.getScriptname4(), templateStep.getScriptname4())
+                && Objects.equals(oldStep.getTypAutomatischScriptpfad4(), templateStep.getTypAutomatischScriptpfad4())
+                && Objects.equals(oldStep.getScriptname5(), templateStep.getScriptname5())
+                && Objects.equals(oldStep.getTypAutomatischScriptpfad5(), templateStep.getTypAutomatischScriptpfad5())
+                && Objects.equals(oldStep.getHomeverzeichnisNutzen(), templateStep.getHomeverzeichnisNutzen())
+                && Objects.equals(oldStep.getBatchStep(), templateStep.getBatchStep())
+                && Objects.equals(oldStep.getStepPlugin(), templateStep.getStepPlugin())
+                && Objects.equals(oldStep.getValidationPlugin(), templateStep.getValidationPlugin())
+                && Objects.equals(oldStep.isDelayStep(), templateStep.isDelayStep())
+                && Objects.equals(oldStep.isUpdateMetadataIndex(), templateStep.isUpdateMetadataIndex())
+                && Objects.equals(oldStep.isGenerateDocket(), templateStep.isGenerateDocket())
+                && Objects.equals(oldStep.isHttpStep(), templateStep.isHttpStep())
+                && Objects.equals(oldStep.getHttpUrl(), templateStep.getHttpUrl())
+                && Objects.equals(oldStep.getHttpMethod(), templateStep.getHttpMethod())
+                && Objects.equals(oldStep.getHttpJsonBody(), templateStep.getHttpJsonBody())
+                && Objects.equals(oldStep.isHttpCloseStep(), templateStep.isHttpCloseStep())
+                && Objects.equals(oldStep.isHttpEscapeBodyJson(), templateStep.isHttpEscapeBodyJson())
+                && Objects.equals(oldStep.getMessageQueue(), templateStep.getMessageQueue())
+                && getUserIds(oldStep).equals(getUserIds(templateStep));
+    }
+
+    private static Set<Integer> getUserIds(Step step) {
+        if (step.getBenutzer() == null) {
+            return Collections.emptySet();
+        }
+        Set<Integer> ids = new TreeSet<>();
+        for (User user : step.getBenutzer()) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,99 @@
+package de.intranda.goobi.plugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread safe cache with a maximum size and a time to live for each entry. If the cache is full, the least recently used entry is removed.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class TimedCache<K, V> {
+
+    private final long timeToLiveMillis;
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * create a new cache
+     *
+     * @param timeToLiveMillis time in milliseconds after which an entry expires
+     * @param maxSize maximum number of entries
+     */
+    public TimedCache(long timeToLiveMillis, int maxSize) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = -4521785462137455219L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * get the cached value for the key
+     *
+     * @param key the key
+     * @return the value or null if the key is not cached or the entry has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * add a value to the cache
+     *
+     * @param key the key
+     * @param value the value, null values are not cached
+     */
+    public synchronized void put(K key, V value) {
+        if (value != null) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + timeToLiveMillis));
+        }
+    }
+
+    /**
+     * remove a single entry
+     *
+     * @param key the key
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * remove all entries
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * get the number of cached entries, including expired entries that were not accessed since they expired
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        private Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
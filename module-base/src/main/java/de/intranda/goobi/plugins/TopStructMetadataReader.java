@@ -0,0 +1,154 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Streaming reader for a single metadata value of the logical top struct of a METS file. Only the descriptive metadata sections and the beginning of
+ * the logical struct map are read, the reader stops at the first logical div. The physical structure and the file references are never built.
+ *
+ * If the file cannot be handled, e.g. because it is no METS file or the top struct is an anchor stored in another file, null is returned and the
+ * caller has to read the file with UGH instead.
+ */
+@Log4j
+public class TopStructMetadataReader {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String GOOBI_NS_PREFIX = "http://meta.goobi.org/";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private TopStructMetadataReader() {
+        // static access only
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * get the first value of the metadata with the given name from the logical top struct of the metadata file
+     *
+     * @param metadataFile the metadata file of the process
+     * @param metadataName name of the metadata type
+     * @return the value, an empty string if the top struct has no such metadata or null if the file cannot be handled by this reader
+     */
+    public static String readValue(Path metadataFile, String metadataName) {
+        try (InputStream in = StorageProvider.getInstance().newInputStream(metadataFile)) {
+            return readValue(in, metadataName);
+        } catch (IOException | XMLStreamException e) {
+            log.debug("Cannot stream metadata file " + metadataFile + ", it is read with UGH instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * get the first value of the metadata with the given name from the logical top struct of a METS document
+     *
+     * @param in the METS document
+     * @param metadataName name of the metadata type
+     * @return the value, an empty string if the top struct has no such metadata or null if the document cannot be handled by this reader
+     * @throws XMLStreamException if the document is not well formed
+     */
+    public static String readValue(InputStream in, String metadataName) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            return readValue(reader, metadataName);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String readValue(XMLStreamReader reader, String metadataName) throws XMLStreamException {
+        // sections with a goobi extension and the first value of the metadata in each of them
+        Set<String> sections = new HashSet<>();
+        Map<String, String> values = new HashMap<>();
+
+        String currentSection = null;
+        boolean inLogicalMap = false;
+        String topSection = null;
+        int depth = 0;
+        int goobiDepth = -1;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String namespace = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (depth == 1 && !(METS_NS.equals(namespace) && "mets".equals(name))) {
+                    return null;
+                }
+                if (topSection != null) {
+                    // the top struct is decided by the first element inside of its div, an anchor only contains a pointer to the anchor file
+                    return METS_NS.equals(namespace) && "mptr".equals(name) ? null : getValue(topSection, sections, values);
+                }
+                if (METS_NS.equals(namespace)) {
+                    if ("dmdSec".equals(name)) {
+                        currentSection = reader.getAttributeValue(null, "ID");
+                    } else if ("structMap".equals(name)) {
+                        inLogicalMap = "LOGICAL".equals(reader.getAttributeValue(null, "TYPE"));
+                    } else if (inLogicalMap && "div".equals(name)) {
+                        String dmdId = reader.getAttributeValue(null, "DMDID");
+                        if (dmdId == null || dmdId.isBlank()) {
+                            return null;
+                        }
+                        topSection = dmdId.trim().split("\\s+")[0];
+                    }
+                } else if (currentSection != null && namespace != null && namespace.startsWith(GOOBI_NS_PREFIX)) {
+                    if ("goobi".equals(name)) {
+                        goobiDepth = depth;
+                        sections.add(currentSection);
+                    } else if ("metadata".equals(name) && depth == goobiDepth + 1 && reader.getAttributeValue(null, "type") == null
+                            && metadataName.equals(reader.getAttributeValue(null, "name"))) {
+                        // persons, corporates and groups have a type and are not part of the plain metadata
+                        String value = reader.getElementText();
+                        depth--;
+                        values.putIfAbsent(currentSection, value);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (topSection != null) {
+                    // the div of the top struct is empty
+                    return getValue(topSection, sections, values);
+                }
+                if (depth == goobiDepth) {
+                    goobiDepth = -1;
+                }
+                depth--;
+                if (METS_NS.equals(reader.getNamespaceURI())) {
+                    if ("dmdSec".equals(reader.getLocalName())) {
+                        currentSection = null;
+                    } else if ("structMap".equals(reader.getLocalName())) {
+                        inLogicalMap = false;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getValue(String section, Set<String> sections, Map<String, String> values) {
+        if (!sections.contains(section)) {
+            // the metadata of the top struct is not stored in the goobi format
+            return null;
+        }
+        return values.getOrDefault(section, "");
+    }
+}
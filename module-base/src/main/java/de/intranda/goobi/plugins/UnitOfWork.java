@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import de.sub.goobi.persistence.managers.MySQLHelper;
+
+/**
+ * A single database connection with a single transaction that is used for all writes of one run. If the unit is closed without being committed,
+ * all changes are rolled back.
+ *
+ * <pre>
+ * try (UnitOfWork unit = UnitOfWork.begin()) {
+ *     ...
+ *     unit.commit();
+ * }
+ * </pre>
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private final Connection connection;
+    private boolean committed = false;
+
+    private UnitOfWork(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * get a connection and start a transaction
+     *
+     * @return the new unit of work
+     * @throws SQLException
+     */
+    public static UnitOfWork begin() throws SQLException {
+        Connection connection = MySQLHelper.getInstance().getConnection();
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            MySQLHelper.closeConnection(connection);
+            throw e;
+        }
+        return new UnitOfWork(connection);
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * commit all changes of this unit
+     *
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        connection.commit();
+        committed = true;
+    }
+
+    /**
+     * roll back the changes if the unit was not committed and return the connection
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!committed) {
+                connection.rollback();
+            }
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } finally {
+                MySQLHelper.closeConnection(connection);
+            }
+        }
+    }
+}
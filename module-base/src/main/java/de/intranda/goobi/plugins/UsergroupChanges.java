@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.goobi.beans.Step;
+import org.goobi.beans.Usergroup;
+
+/**
+ * Collects the user group assignments that are removed from or added to the steps of a process. Only the differences to the current assignments
+ * are recorded, they are written with one batched statement for each direction. As with the ProcessChanges, an assignment that was changed by
+ * someone else in the meantime raises a ProcessChangedException.
+ */
+public class UsergroupChanges {
+
+    private static final String DELETE = "DELETE FROM schritteberechtigtegruppen WHERE BenutzerGruppenID = ? AND schritteID = ?";
+    private static final String INSERT = "INSERT INTO schritteberechtigtegruppen (BenutzerGruppenID, schritteID) SELECT ?, ? FROM DUAL "
+            + "WHERE NOT EXISTS (SELECT 1 FROM schritteberechtigtegruppen WHERE BenutzerGruppenID = ? AND schritteID = ?)";
+
+    private final List<Object[]> removed = new ArrayList<>();
+    private final List<Object[]> added = new ArrayList<>();
+
+    /**
+     * assign the given user groups to the step and record the difference to the current assignments. Nothing happens if the step already has
+     * exactly these groups.
+     *
+     * @param step the step
+     * @param newGroups the user groups the step shall have
+     * @return true if the assignments of the step were changed
+     */
+    public boolean changeStep(Step step, List<Usergroup> newGroups) {
+        Set<Integer> currentIds = new LinkedHashSet<>();
+        for (Usergroup group : step.getBenutzergruppen()) {
+            currentIds.add(group.getId());
+        }
+        Set<Integer> newIds = new LinkedHashSet<>();
+        for (Usergroup group : newGroups) {
+            newIds.add(group.getId());
+        }
+        if (currentIds.equals(newIds)) {
+            return false;
+        }
+
+        // steps without id are new, their assignments are written when the process is saved
+        if (step.getId() != null) {
+            for (Integer groupId : currentIds) {
+                if (!newIds.contains(groupId)) {
+                    removed.add(new Object[] { groupId, step.getId() });
+                }
+            }
+            for (Integer groupId : newIds) {
+                if (!currentIds.contains(groupId)) {
+                    added.add(new Object[] { groupId, step.getId(), groupId, step.getId() });
+                }
+            }
+        }
+        step.getBenutzergruppen().clear();
+        step.getBenutzergruppen().addAll(newGroups);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty();
+    }
+
+    /**
+     * write the recorded changes using the given connection and forget them. An assignment is only removed if it still exists and only added if it
+     * does not exist yet.
+     *
+     * @param connection the connection of the current unit of work
+     * @throws ProcessChangedException if the assignments were changed by someone else since the process was loaded
+     * @throws SQLException
+     */
+    public void write(Connection connection) throws SQLException {
+        QueryRunner run = new QueryRunner();
+        if (!removed.isEmpty()) {
+            Object[][] rows = removed.toArray(new Object[removed.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, DELETE, rows), rows, 1, "user groups of step");
+        }
+        if (!added.isEmpty()) {
+            Object[][] rows = added.toArray(new Object[added.size()][]);
+            ProcessChangedException.checkUpdated(run.batch(connection, INSERT, rows), rows, 1, "user groups of step");
+        }
+        removed.clear();
+        added.clear();
+    }
+}
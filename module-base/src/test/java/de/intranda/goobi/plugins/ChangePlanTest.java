@@ -0,0 +1,183 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.production.enums.LogType;
+import org.junit.Test;
+
+import de.sub.goobi.helper.enums.StepStatus;
+
+public class ChangePlanTest {
+
+    private static final String CURRENT_STEP = "Change workflow";
+
+    @Test
+    public void testEmptyPlan() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        assertFalse(plan.isAnyRuleMatched());
+        assertNull(plan.getStepChange("Step 1"));
+        assertNull(plan.getPriority("Step 1"));
+        assertTrue(plan.getAutomaticRunSteps().isEmpty());
+    }
+
+    @Test
+    public void testLaterRuleOverwritesStatus() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<steps type=\"open\"><title>Step 1</title><title>Step 2</title></steps>"));
+        plan.merge(rule("<steps type=\"close\"><title>Step 2</title></steps>"));
+
+        assertTrue(plan.isAnyRuleMatched());
+        assertEquals(StepStatus.OPEN, plan.getStepChange("Step 1").getStatus());
+        assertEquals(StepStatus.DONE, plan.getStepChange("Step 2").getStatus());
+    }
+
+    @Test
+    public void testStatusListsOfOneRule() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        // within a rule the lists are applied in the order open, deactivate, close, lock
+        plan.merge(rule("<steps type=\"lock\"><title>Step 1</title></steps><steps type=\"open\"><title>Step 1</title></steps>"
+                + "<steps type=\"deactivate\"><title>Step 2</title></steps>"));
+
+        assertEquals(StepStatus.LOCKED, plan.getStepChange("Step 1").getStatus());
+        assertEquals(StepStatus.DEACTIVATED, plan.getStepChange("Step 2").getStatus());
+    }
+
+    @Test
+    public void testCurrentStepChangedByLastRule() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<steps type=\"close\"><title>" + CURRENT_STEP + "</title></steps>"));
+        assertTrue(plan.isCurrentStepChanged());
+
+        // only the last matching rule decides whether the step of the plugin is changed
+        plan.merge(rule("<steps type=\"open\"><title>Step 1</title></steps>"));
+        assertFalse(plan.isCurrentStepChanged());
+    }
+
+    @Test
+    public void testLaterRuleOverwritesPriority() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<priority value=\"1\"><title>Step 1</title></priority><priority value=\"2\"><title>Step 2</title></priority>"));
+        plan.merge(rule("<priority value=\"10\"><title>Step 1</title></priority>"));
+
+        assertEquals(Integer.valueOf(10), plan.getPriority("Step 1"));
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 2"));
+        assertNull(plan.getPriority("Step 3"));
+    }
+
+    @Test
+    public void testStarPriority() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<priority value=\"1\"><title>Step 1</title></priority>"));
+        // the * wins over all other priorities of the rule and removes the priorities of earlier rules
+        plan.merge(rule("<priority value=\"2\"><title>*</title></priority><priority value=\"10\"><title>Step 2</title></priority>"));
+
+        assertEquals(Integer.valueOf(2), plan.getPriorityForAllSteps());
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 1"));
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 2"));
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 3"));
+    }
+
+    @Test
+    public void testFirstStarPriorityOfRule() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        // the priorities of a rule are checked in the order 0, 1, 2, 3, 10
+        plan.merge(rule("<priority value=\"10\"><title>*</title></priority><priority value=\"1\"><title>*</title></priority>"));
+
+        assertEquals(Integer.valueOf(1), plan.getPriority("Step 1"));
+    }
+
+    @Test
+    public void testPriorityAfterStarPriority() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<priority value=\"2\"><title>*</title></priority>"));
+        plan.merge(rule("<priority value=\"10\"><title>Step 1</title></priority>"));
+
+        assertEquals(Integer.valueOf(10), plan.getPriority("Step 1"));
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 2"));
+    }
+
+    @Test
+    public void testWorkflowResetsEarlierStepChanges() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<steps type=\"open\"><title>Step 1</title></steps><steps type=\"run\"><title>Step 1</title></steps>"
+                + "<priority value=\"2\"><title>*</title></priority><usergroups step=\"Step 1\"><usergroup>Scanning</usergroup></usergroups>"));
+        plan.merge(rule("<workflow>New template</workflow><steps type=\"close\"><title>Step 2</title></steps>"));
+
+        assertEquals("New template", plan.getProcessTemplate());
+        ChangePlan.StepChange step1 = plan.getStepChange("Step 1");
+        assertNull(step1.getStatus());
+        assertNull(step1.getPriority());
+        assertNull(step1.getUserGroups());
+        assertNull(plan.getPriority("Step 1"));
+        // steps to run are started in the new workflow too
+        assertEquals(Arrays.asList("Step 1"), plan.getAutomaticRunSteps());
+        // changes of the rule with the workflow itself are kept
+        assertEquals(StepStatus.DONE, plan.getStepChange("Step 2").getStatus());
+    }
+
+    @Test
+    public void testUnknownWorkflowKeepsEarlierChanges() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP, "Known template"::equals);
+        plan.merge(rule("<workflow>Known template</workflow>"));
+        plan.merge(rule("<steps type=\"open\"><title>Step 1</title></steps><priority value=\"2\"><title>Step 1</title></priority>"));
+        plan.merge(rule("<workflow>Missing template</workflow>"));
+
+        // the template of the later rule cannot be found, the process is switched to the known one
+        assertEquals("Known template", plan.getProcessTemplate());
+        assertEquals(StepStatus.OPEN, plan.getStepChange("Step 1").getStatus());
+        assertEquals(Integer.valueOf(2), plan.getPriority("Step 1"));
+    }
+
+    @Test
+    public void testUsergroupsAndProject() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<project>First</project><usergroups step=\"Step 1\"><usergroup>Scanning</usergroup></usergroups>"));
+        plan.merge(rule("<project>Second</project><usergroups step=\"Step 1\"><usergroup>Quality</usergroup><usergroup>Admin</usergroup></usergroups>"));
+
+        assertEquals("Second", plan.getProject());
+        assertEquals(Arrays.asList("Quality", "Admin"), plan.getStepChange("Step 1").getUserGroups());
+    }
+
+    @Test
+    public void testPropertiesAndLogsInRuleOrder() {
+        ChangePlan plan = new ChangePlan(CURRENT_STEP);
+        plan.merge(rule("<properties><property name=\"A\" value=\"1\" /></properties><log type=\"info\">first</log>"));
+        plan.merge(rule("<properties><property name=\"A\" value=\"2\" /><property name=\"B\" delete=\"true\" /></properties>"
+                + "<log type=\"error\">second</log>"));
+
+        List<ChangeRule.PropertyChange> properties = plan.getPropertyChanges();
+        assertEquals(3, properties.size());
+        assertEquals("1", properties.get(0).getValue());
+        assertEquals("2", properties.get(1).getValue());
+        assertTrue(properties.get(2).isDelete());
+
+        List<ChangePlan.LogMessage> logs = plan.getLogMessages();
+        assertEquals(2, logs.size());
+        assertEquals(LogType.INFO, logs.get(0).getType());
+        assertEquals("first", logs.get(0).getMessage());
+        assertEquals(LogType.ERROR, logs.get(1).getType());
+    }
+
+    private static ChangeRule rule(String changes) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        try {
+            config.load(new StringReader("<change><propertyName>{process.Template}</propertyName><propertyValue>Manuscript</propertyValue>"
+                    + changes + "</change>"));
+        } catch (ConfigurationException e) {
+            throw new IllegalArgumentException(e);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return ChangeRule.fromConfiguration(config);
+    }
+}
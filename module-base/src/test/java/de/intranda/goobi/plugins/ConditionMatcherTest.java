@@ -0,0 +1,128 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ConditionMatcherTest {
+
+    @Test
+    public void testMissing() {
+        ConditionMatcher matcher = compile("missing", "");
+        assertTrue(matcher.matches(null));
+        assertTrue(matcher.matches(" "));
+        assertFalse(matcher.matches("value"));
+    }
+
+    @Test
+    public void testAvailable() {
+        ConditionMatcher matcher = compile("available", "");
+        assertFalse(matcher.matches(null));
+        assertFalse(matcher.matches(" "));
+        assertTrue(matcher.matches("value"));
+    }
+
+    @Test
+    public void testIs() {
+        ConditionMatcher matcher = compile("is", "Manuscript");
+        assertTrue(matcher.matches("Manuscript"));
+        assertTrue(matcher.matches(" Manuscript "));
+        assertFalse(matcher.matches("manuscript"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testNot() {
+        ConditionMatcher matcher = compile("not", "Manuscript");
+        assertFalse(matcher.matches("Manuscript"));
+        assertFalse(matcher.matches(" Manuscript "));
+        assertTrue(matcher.matches("Monograph"));
+        assertTrue(matcher.matches(null));
+    }
+
+    @Test
+    public void testMatches() {
+        ConditionMatcher matcher = compile("matches", "PPN\\d+");
+        assertTrue(matcher.matches("PPN123"));
+        // the whole value must match
+        assertFalse(matcher.matches("PPN123X"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testMatchesInvalidExpression() {
+        ConditionMatcher matcher = compile("matches", "PPN[");
+        assertFalse(matcher.matches("PPN["));
+        assertFalse(matcher.matches("PPN123"));
+    }
+
+    @Test
+    public void testIn() {
+        ConditionMatcher matcher = ConditionMatcher.compile("in", Arrays.asList("Manuscript", "Monograph"));
+        assertTrue(matcher.matches("Manuscript"));
+        assertTrue(matcher.matches(" Monograph"));
+        assertFalse(matcher.matches("Periodical"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testStartsWith() {
+        ConditionMatcher matcher = compile("startsWith", "PPN");
+        assertTrue(matcher.matches("PPN123"));
+        assertTrue(matcher.matches(" PPN123"));
+        assertFalse(matcher.matches("123PPN"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testLessThan() {
+        ConditionMatcher matcher = compile("lt", "10");
+        assertTrue(matcher.matches("9.5"));
+        assertTrue(matcher.matches(" -1 "));
+        assertFalse(matcher.matches("10"));
+        assertFalse(matcher.matches("11"));
+        assertFalse(matcher.matches("ten"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testGreaterThan() {
+        ConditionMatcher matcher = compile("gt", "10");
+        assertTrue(matcher.matches("10.5"));
+        assertFalse(matcher.matches("10"));
+        assertFalse(matcher.matches("9"));
+        assertFalse(matcher.matches("eleven"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void testInvalidNumber() {
+        ConditionMatcher lessThan = compile("lt", "ten");
+        assertFalse(lessThan.matches("1"));
+        assertFalse(lessThan.matches("ten"));
+        ConditionMatcher greaterThan = compile("gt", "");
+        assertFalse(greaterThan.matches("1"));
+    }
+
+    @Test
+    public void testUnknownCondition() {
+        ConditionMatcher matcher = compile("contains", "Manuscript");
+        assertFalse(matcher.matches("Manuscript"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testWithoutValues() {
+        ConditionMatcher matcher = ConditionMatcher.compile("is", Collections.emptyList());
+        assertFalse(matcher.matches(""));
+        assertFalse(matcher.matches("Manuscript"));
+    }
+
+    private static ConditionMatcher compile(String condition, String value) {
+        return ConditionMatcher.compile(condition, Collections.singletonList(value));
+    }
+}
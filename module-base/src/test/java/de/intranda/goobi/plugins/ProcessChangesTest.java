@@ -0,0 +1,196 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Step;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.sub.goobi.helper.enums.StepStatus;
+
+public class ProcessChangesTest {
+
+    private Connection connection;
+    private Process process;
+    private Step step;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.create();
+        TestDatabase.execute(connection, "INSERT INTO prozesse (ProzesseID, Titel, ProjekteID) VALUES (1, 'process', 1)");
+        TestDatabase.execute(connection, "INSERT INTO schritte (SchritteID, Titel, Prioritaet, Bearbeitungsstatus, ProzesseID) VALUES (10, 'Step 1', 0, "
+                + StepStatus.LOCKED.getValue() + ", 1)");
+
+        Project project = new Project();
+        project.setId(1);
+        process = new Process();
+        process.setId(1);
+        process.setProjekt(project);
+        process.setProjectId(1);
+        step = new Step();
+        step.setId(10);
+        step.setTitel("Step 1");
+        step.setPrioritaet(0);
+        step.setBearbeitungsstatusEnum(StepStatus.LOCKED);
+        step.setProzess(process);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testWriteChangedColumns() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.OPEN);
+        changes.changePriority(step, 10);
+        changes.changeProject(process, project(2));
+        assertFalse(changes.isEmpty());
+
+        changes.write(connection);
+
+        assertTrue(changes.isEmpty());
+        assertEquals(StepStatus.OPEN.getValue(), TestDatabase.queryValue(connection, "SELECT Bearbeitungsstatus FROM schritte WHERE SchritteID = 10"));
+        assertEquals(10, TestDatabase.queryValue(connection, "SELECT Prioritaet FROM schritte WHERE SchritteID = 10"));
+        assertEquals(2, TestDatabase.queryValue(connection, "SELECT ProjekteID FROM prozesse WHERE ProzesseID = 1"));
+    }
+
+    @Test
+    public void testUnchangedValuesAreNotRecorded() {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.LOCKED);
+        changes.changePriority(step, 0);
+        changes.changeProject(process, project(1));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testStatusChangedConcurrently() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.OPEN);
+        TestDatabase.execute(connection, "UPDATE schritte SET Bearbeitungsstatus = " + StepStatus.DONE.getValue() + " WHERE SchritteID = 10");
+
+        assertConflict(changes);
+        assertEquals(StepStatus.DONE.getValue(), TestDatabase.queryValue(connection, "SELECT Bearbeitungsstatus FROM schritte WHERE SchritteID = 10"));
+    }
+
+    @Test
+    public void testStepDeletedConcurrently() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.OPEN);
+        TestDatabase.execute(connection, "DELETE FROM schritte WHERE SchritteID = 10");
+
+        assertConflict(changes);
+    }
+
+    @Test
+    public void testPriorityChangedConcurrently() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changePriority(step, 10);
+        TestDatabase.execute(connection, "UPDATE schritte SET Prioritaet = 1 WHERE SchritteID = 10");
+
+        assertConflict(changes);
+    }
+
+    @Test
+    public void testProjectChangedConcurrently() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeProject(process, project(2));
+        TestDatabase.execute(connection, "UPDATE prozesse SET ProjekteID = 3 WHERE ProzesseID = 1");
+
+        assertConflict(changes);
+    }
+
+    @Test
+    public void testProjectChangedTwice() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeProject(process, project(2));
+        changes.changeProject(process, project(3));
+
+        changes.write(connection);
+
+        assertEquals(3, TestDatabase.queryValue(connection, "SELECT ProjekteID FROM prozesse WHERE ProzesseID = 1"));
+    }
+
+    @Test
+    public void testWriteEmptyOldValues() throws SQLException {
+        TestDatabase.execute(connection, "UPDATE schritte SET Prioritaet = NULL, Bearbeitungsstatus = NULL WHERE SchritteID = 10");
+        TestDatabase.execute(connection, "UPDATE prozesse SET ProjekteID = NULL WHERE ProzesseID = 1");
+        step.setPrioritaet(null);
+        step.setBearbeitungsstatus(null);
+        process.setProjectId(null);
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.OPEN);
+        changes.changePriority(step, 10);
+        changes.changeProject(process, project(2));
+
+        changes.write(connection);
+
+        assertEquals(StepStatus.OPEN.getValue(), TestDatabase.queryValue(connection, "SELECT Bearbeitungsstatus FROM schritte WHERE SchritteID = 10"));
+        assertEquals(10, TestDatabase.queryValue(connection, "SELECT Prioritaet FROM schritte WHERE SchritteID = 10"));
+        assertEquals(2, TestDatabase.queryValue(connection, "SELECT ProjekteID FROM prozesse WHERE ProzesseID = 1"));
+    }
+
+    @Test
+    public void testEmptyValueChangedConcurrently() throws SQLException {
+        TestDatabase.execute(connection, "UPDATE prozesse SET ProjekteID = 3 WHERE ProzesseID = 1");
+        process.setProjectId(null);
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeProject(process, project(2));
+
+        assertConflict(changes);
+        assertEquals(3, TestDatabase.queryValue(connection, "SELECT ProjekteID FROM prozesse WHERE ProzesseID = 1"));
+    }
+
+    @Test
+    public void testFullSaveWritesNothing() throws SQLException {
+        ProcessChanges changes = new ProcessChanges();
+        changes.changeStatus(step, StepStatus.OPEN);
+        changes.requireFullSave();
+        // the row was changed, but the process is saved completely instead
+        TestDatabase.execute(connection, "UPDATE schritte SET Bearbeitungsstatus = " + StepStatus.DONE.getValue() + " WHERE SchritteID = 10");
+
+        changes.write(connection);
+
+        assertTrue(changes.isFullSaveRequired());
+        assertEquals(StepStatus.DONE.getValue(), TestDatabase.queryValue(connection, "SELECT Bearbeitungsstatus FROM schritte WHERE SchritteID = 10"));
+    }
+
+    @Test
+    public void testBatchWithoutUpdateCounts() throws SQLException {
+        // drivers that rewrite batches report SUCCESS_NO_INFO instead of the count of each statement
+        ProcessChangedException.checkUpdated(new int[] { Statement.SUCCESS_NO_INFO, 1 }, new Object[][] { { 1, 10 }, { 1, 11 } }, 1, "step");
+        try {
+            ProcessChangedException.checkUpdated(new int[] { 1, 0 }, new Object[][] { { 1, 10 }, { 1, 11 } }, 1, "step");
+            fail("the second statement did not change a row");
+        } catch (ProcessChangedException e) {
+            assertEquals("step 11 was changed concurrently", e.getMessage());
+        }
+    }
+
+    private void assertConflict(ProcessChanges changes) throws SQLException {
+        try {
+            changes.write(connection);
+            fail("the concurrent change was not detected");
+        } catch (ProcessChangedException e) {
+            // expected
+        }
+    }
+
+    private static Project project(int id) {
+        Project project = new Project();
+        project.setId(id);
+        return project;
+    }
+}
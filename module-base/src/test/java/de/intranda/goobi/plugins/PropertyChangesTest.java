@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.GoobiProperty.PropertyOwnerType;
+import org.goobi.beans.Process;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropertyChangesTest {
+
+    private Connection connection;
+    private Process process;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.create();
+        TestDatabase.execute(connection, "INSERT INTO properties (id, property_name, property_value, object_id, object_type) VALUES "
+                + "(1, 'Template', 'Monograph', 1, 'process'), (2, 'Archived', NULL, 1, 'process'), (3, 'Comment', 'old', 1, 'process')");
+
+        process = new Process();
+        process.setId(1);
+        List<GoobiProperty> properties = new ArrayList<>();
+        properties.add(property(1, "Template", "Monograph"));
+        properties.add(property(2, "Archived", null));
+        properties.add(property(3, "Comment", "old"));
+        process.setEigenschaften(properties);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testWriteUpdatesAndDeletions() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Template", "Manuscript"), change("Archived", "true"), delete("Comment")));
+        assertFalse(changes.isEmpty());
+
+        changes.write(connection);
+
+        assertTrue(changes.isEmpty());
+        assertEquals("Manuscript", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 1"));
+        assertEquals("true", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 2"));
+        assertNull(TestDatabase.queryValue(connection, "SELECT id FROM properties WHERE id = 3"));
+        assertEquals(2, process.getEigenschaften().size());
+    }
+
+    @Test
+    public void testInsertNewProperty() throws SQLException {
+        TestDatabase.execute(connection, "ALTER TABLE properties ALTER COLUMN id RESTART WITH 100");
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Workflow", "Manuscript")));
+        assertFalse(changes.isEmpty());
+
+        changes.write(connection);
+
+        assertTrue(changes.isEmpty());
+        assertEquals("Manuscript", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 100 AND object_id = 1"));
+        assertEquals("process", TestDatabase.queryValue(connection, "SELECT object_type FROM properties WHERE id = 100"));
+    }
+
+    @Test
+    public void testNewPropertyIsRolledBack() throws SQLException {
+        connection.setAutoCommit(false);
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Workflow", "Manuscript"), change("Template", "Manuscript")));
+        TestDatabase.execute(connection, "UPDATE properties SET property_value = 'Periodical' WHERE id = 1");
+        connection.commit();
+
+        assertConflict(changes);
+        connection.rollback();
+
+        // the new property is part of the same transaction as the changed one
+        assertEquals(0L, ((Number) TestDatabase.queryValue(connection, "SELECT COUNT(*) FROM properties WHERE property_name = 'Workflow'"))
+                .longValue());
+    }
+
+    @Test
+    public void testLastChangeWins() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Template", "Manuscript"), change("Template", "Periodical")));
+        // a second call compares with the value the property had when the process was loaded
+        changes.apply(process, Arrays.asList(change("Template", "Map")));
+
+        changes.write(connection);
+
+        assertEquals("Map", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 1"));
+    }
+
+    @Test
+    public void testUnchangedValueIsNotRecorded() {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Template", "Monograph")));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testValueChangedConcurrently() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Template", "Manuscript")));
+        TestDatabase.execute(connection, "UPDATE properties SET property_value = 'Periodical' WHERE id = 1");
+
+        assertConflict(changes);
+        assertEquals("Periodical", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 1"));
+    }
+
+    @Test
+    public void testEmptyValueChangedConcurrently() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Archived", "true")));
+        TestDatabase.execute(connection, "UPDATE properties SET property_value = 'false' WHERE id = 2");
+
+        assertConflict(changes);
+    }
+
+    @Test
+    public void testDeletedPropertyChangedConcurrently() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(delete("Comment")));
+        TestDatabase.execute(connection, "UPDATE properties SET property_value = 'new' WHERE id = 3");
+
+        assertConflict(changes);
+        assertEquals("new", TestDatabase.queryValue(connection, "SELECT property_value FROM properties WHERE id = 3"));
+    }
+
+    @Test
+    public void testPropertyDeletedConcurrently() throws SQLException {
+        PropertyChanges changes = new PropertyChanges();
+        changes.apply(process, Arrays.asList(change("Template", "Manuscript")));
+        TestDatabase.execute(connection, "DELETE FROM properties WHERE id = 1");
+
+        assertConflict(changes);
+    }
+
+    private void assertConflict(PropertyChanges changes) throws SQLException {
+        try {
+            changes.write(connection);
+            fail("the concurrent change was not detected");
+        } catch (ProcessChangedException e) {
+            // expected
+        }
+    }
+
+    private GoobiProperty property(int id, String name, String value) {
+        GoobiProperty property = new GoobiProperty(PropertyOwnerType.PROCESS);
+        property.setId(id);
+        property.setPropertyName(name);
+        property.setPropertyValue(value);
+        property.setOwner(process);
+        return property;
+    }
+
+    private static ChangeRule.PropertyChange change(String name, String value) {
+        return new ChangeRule.PropertyChange(name, value, false);
+    }
+
+    private static ChangeRule.PropertyChange delete(String name) {
+        return new ChangeRule.PropertyChange(name, null, true);
+    }
+}
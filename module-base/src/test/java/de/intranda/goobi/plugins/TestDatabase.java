@@ -0,0 +1,54 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded H2 database in MySQL mode with the columns of the Goobi workflow tables the change classes write. Each call creates a new, empty
+ * database.
+ */
+final class TestDatabase {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private TestDatabase() {
+        // static access only
+    }
+
+    /**
+     * @return a connection to a new database with the tables prozesse, schritte, schritteberechtigtegruppen and properties
+     * @throws SQLException
+     */
+    static Connection create() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:test" + COUNTER.incrementAndGet()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=VALUE", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE prozesse (ProzesseID INT PRIMARY KEY, Titel VARCHAR(255), ProjekteID INT)");
+            statement.execute("CREATE TABLE schritte (SchritteID INT PRIMARY KEY, Titel VARCHAR(255), Prioritaet INT, Bearbeitungsstatus INT, "
+                    + "ProzesseID INT)");
+            statement.execute("CREATE TABLE schritteberechtigtegruppen (BenutzerGruppenID INT, schritteID INT)");
+            statement.execute("CREATE TABLE properties (id INT AUTO_INCREMENT PRIMARY KEY, property_name VARCHAR(255), property_value TEXT, "
+                    + "required BOOLEAN, object_id INT, object_type VARCHAR(50), creation_date DATETIME)");
+        }
+        return connection;
+    }
+
+    static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * @return the first column of the first row of the query, null if there is no row
+     */
+    static Object queryValue(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getObject(1) : null;
+        }
+    }
+}
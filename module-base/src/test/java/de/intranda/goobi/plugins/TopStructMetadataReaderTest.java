@@ -0,0 +1,136 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class TopStructMetadataReaderTest {
+
+    private static final String METS_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\""
+            + " xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\">";
+    private static final String METS_END = "</mets:mets>";
+
+    @Test
+    public void testValueOfTopStruct() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"CatalogIDDigital\">PPN123</goobi:metadata>")
+                + section("DMDLOG_0001", "<goobi:metadata name=\"CatalogIDDigital\">PPN456</goobi:metadata>")
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\">"
+                + "<mets:div ID=\"LOG_0001\" DMDID=\"DMDLOG_0001\" TYPE=\"Chapter\" /></mets:div></mets:structMap>" + METS_END;
+        assertEquals("PPN123", read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testSectionsAfterStructMap() throws Exception {
+        // the top struct is taken from the logical struct map, not from the order of the sections
+        String mets = METS_START + section("DMDLOG_0001", "<goobi:metadata name=\"CatalogIDDigital\">PPN456</goobi:metadata>")
+                + section("DMDLOG_0000", "<goobi:metadata name=\"CatalogIDDigital\">PPN123</goobi:metadata>")
+                + "<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0000\" DMDID=\"DMDLOG_0001\" TYPE=\"BoundBook\" /></mets:structMap>"
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\" /></mets:structMap>"
+                + METS_END;
+        assertEquals("PPN123", read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testFirstValue() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"TitleDocMain\">First</goobi:metadata>"
+                + "<goobi:metadata name=\"TitleDocMain\">Second</goobi:metadata>") + logicalMap("DMDLOG_0000") + METS_END;
+        assertEquals("First", read(mets, "TitleDocMain"));
+    }
+
+    @Test
+    public void testMissingMetadata() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"TitleDocMain\">Title</goobi:metadata>")
+                + logicalMap("DMDLOG_0000") + METS_END;
+        assertEquals("", read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testMetadataWithType() throws Exception {
+        // persons use the same element with a type attribute
+        String mets = METS_START + section("DMDLOG_0000",
+                "<goobi:metadata name=\"Author\" type=\"person\"><goobi:lastName>Doe</goobi:lastName></goobi:metadata>")
+                + logicalMap("DMDLOG_0000") + METS_END;
+        assertEquals("", read(mets, "Author"));
+    }
+
+    @Test
+    public void testMetadataAfterMetadataWithType() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000",
+                "<goobi:metadata name=\"Author\" type=\"person\"><goobi:lastName>Doe</goobi:lastName></goobi:metadata>"
+                        + "<goobi:metadata name=\"Author\">Plain</goobi:metadata>")
+                + logicalMap("DMDLOG_0000") + METS_END;
+        assertEquals("Plain", read(mets, "Author"));
+    }
+
+    @Test
+    public void testMetadataOfGroup() throws Exception {
+        // metadata within a group are not part of the top struct
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"Location\" type=\"group\">"
+                + "<goobi:metadata name=\"Shelfmark\">Inner</goobi:metadata></goobi:metadata>") + logicalMap("DMDLOG_0000") + METS_END;
+        assertEquals("", read(mets, "Shelfmark"));
+    }
+
+    @Test
+    public void testAnchor() throws Exception {
+        // the top struct of a volume is the anchor, its metadata is stored in another file
+        String mets = METS_START + section("DMDLOG_0001", "<goobi:metadata name=\"CatalogIDDigital\">PPN456</goobi:metadata>")
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Periodical\">"
+                + "<mets:mptr xmlns:xlink=\"http://www.w3.org/1999/xlink\" LOCTYPE=\"URL\" xlink:href=\"meta_anchor.xml\" />"
+                + "<mets:div ID=\"LOG_0001\" DMDID=\"DMDLOG_0001\" TYPE=\"PeriodicalVolume\" /></mets:div></mets:structMap>" + METS_END;
+        assertNull(read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testTopStructWithoutSection() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"CatalogIDDigital\">PPN123</goobi:metadata>")
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" TYPE=\"Monograph\" /></mets:structMap>" + METS_END;
+        assertNull(read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testSectionWithoutGoobiExtension() throws Exception {
+        String mets = METS_START + "<mets:dmdSec ID=\"DMDLOG_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods>"
+                + "<mods:titleInfo><mods:title>Title</mods:title></mods:titleInfo></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>"
+                + logicalMap("DMDLOG_0000") + METS_END;
+        assertNull(read(mets, "TitleDocMain"));
+    }
+
+    @Test
+    public void testWithoutLogicalStructMap() throws Exception {
+        String mets = METS_START + section("DMDLOG_0000", "<goobi:metadata name=\"CatalogIDDigital\">PPN123</goobi:metadata>") + METS_END;
+        assertNull(read(mets, "CatalogIDDigital"));
+    }
+
+    @Test
+    public void testNoMets() throws Exception {
+        // e.g. a file in the internal format of UGH
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><RDF:RDF xmlns:RDF=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+                + "<RDF:Description /></RDF:RDF>";
+        assertNull(read(xml, "CatalogIDDigital"));
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void testMalformedDocument() throws Exception {
+        read(METS_START + "<mets:dmdSec ID=\"DMDLOG_0000\">", "CatalogIDDigital");
+    }
+
+    private static String section(String id, String metadata) {
+        return "<mets:dmdSec ID=\"" + id + "\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>" + metadata
+                + "</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>";
+    }
+
+    private static String logicalMap(String dmdId) {
+        return "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"" + dmdId + "\" TYPE=\"Monograph\" /></mets:structMap>";
+    }
+
+    private static String read(String xml, String metadataName) throws XMLStreamException {
+        return TopStructMetadataReader.readValue(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), metadataName);
+    }
+}
@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.goobi.beans.Step;
+import org.goobi.beans.Usergroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UsergroupChangesTest {
+
+    private Connection connection;
+    private Step step;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.create();
+        TestDatabase.execute(connection, "INSERT INTO schritteberechtigtegruppen (BenutzerGruppenID, schritteID) VALUES (1, 10)");
+
+        step = new Step();
+        step.setId(10);
+        step.setBenutzergruppen(new ArrayList<>(Collections.singletonList(usergroup(1))));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testWriteDifferences() throws SQLException {
+        UsergroupChanges changes = new UsergroupChanges();
+        assertTrue(changes.changeStep(step, Arrays.asList(usergroup(2), usergroup(3))));
+
+        changes.write(connection);
+
+        assertTrue(changes.isEmpty());
+        assertEquals(0L, count("BenutzerGruppenID = 1"));
+        assertEquals(1L, count("BenutzerGruppenID = 2"));
+        assertEquals(1L, count("BenutzerGruppenID = 3"));
+        assertEquals(2, step.getBenutzergruppen().size());
+    }
+
+    @Test
+    public void testSameGroups() {
+        UsergroupChanges changes = new UsergroupChanges();
+        assertFalse(changes.changeStep(step, Arrays.asList(usergroup(1))));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void testGroupRemovedConcurrently() throws SQLException {
+        UsergroupChanges changes = new UsergroupChanges();
+        changes.changeStep(step, Arrays.asList(usergroup(2)));
+        TestDatabase.execute(connection, "DELETE FROM schritteberechtigtegruppen WHERE BenutzerGruppenID = 1");
+
+        assertConflict(changes);
+    }
+
+    @Test
+    public void testGroupAddedConcurrently() throws SQLException {
+        UsergroupChanges changes = new UsergroupChanges();
+        changes.changeStep(step, Arrays.asList(usergroup(1), usergroup(2)));
+        TestDatabase.execute(connection, "INSERT INTO schritteberechtigtegruppen (BenutzerGruppenID, schritteID) VALUES (2, 10)");
+
+        assertConflict(changes);
+        // the assignment is not duplicated
+        assertEquals(1L, count("BenutzerGruppenID = 2"));
+    }
+
+    private long count(String condition) throws SQLException {
+        return ((Number) TestDatabase.queryValue(connection, "SELECT COUNT(*) FROM schritteberechtigtegruppen WHERE schritteID = 10 AND " + condition))
+                .longValue();
+    }
+
+    private void assertConflict(UsergroupChanges changes) throws SQLException {
+        try {
+            changes.write(connection);
+            fail("the concurrent change was not detected");
+        } catch (ProcessChangedException e) {
+            // expected
+        }
+    }
+
+    private static Usergroup usergroup(int id) {
+        Usergroup group = new Usergroup();
+        group.setId(id);
+        group.setTitel("Group " + id);
+        return group;
+    }
+}
@@ -0,0 +1,122 @@
+package de.intranda.goobi.plugins;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.enums.StepStatus;
+
+/**
+ * In-memory processes, steps and rules for the benchmarks. The objects have no database id, so nothing is loaded lazily from the database.
+ */
+final class BenchmarkFixtures {
+
+    static final String PLUGIN_STEP_TITLE = "Change workflow";
+
+    private BenchmarkFixtures() {
+        // static access only
+    }
+
+    /**
+     * create a process with the given number of steps, the plugin step is the first one
+     *
+     * @param numberOfSteps number of steps in the workflow
+     * @return the process
+     */
+    static Process createProcess(int numberOfSteps) {
+        Project project = new Project();
+        project.setTitel("Benchmark project");
+
+        Process process = new Process();
+        process.setTitel("benchmark_process");
+        process.setProjekt(project);
+
+        List<Step> steps = new ArrayList<>(numberOfSteps);
+        for (int i = 0; i < numberOfSteps; ++i) {
+            Step step = new Step();
+            step.setTitel(i == 0 ? PLUGIN_STEP_TITLE : stepTitle(i));
+            step.setReihenfolge(i + 1);
+            step.setPrioritaet(0);
+            step.setBearbeitungsstatusEnum(i == 0 ? StepStatus.INWORK : StepStatus.LOCKED);
+            step.setProzess(process);
+            steps.add(step);
+        }
+        process.setSchritte(steps);
+        return process;
+    }
+
+    static String stepTitle(int index) {
+        return "Step " + index;
+    }
+
+    /**
+     * create rules that each change the status and priority of a few steps. Each rule opens one step, closes one and sets the priority of a
+     * third, distributed over the given number of steps.
+     *
+     * @param numberOfRules number of &lt;change&gt; blocks
+     * @param numberOfSteps number of steps in the workflow
+     * @return the configuration containing the rules
+     */
+    static ChangeConfiguration createConfiguration(int numberOfRules, int numberOfSteps) {
+        StringBuilder xml = new StringBuilder("<config>");
+        for (int i = 0; i < numberOfRules; ++i) {
+            xml.append("<change type=\"property\">")
+                    .append("<propertyName>{process.Template}</propertyName>")
+                    .append("<propertyValue>Manuscript</propertyValue>")
+                    .append("<propertyCondition>is</propertyCondition>")
+                    .append("<steps type=\"open\"><title>")
+                    .append(stepTitle(1 + (3 * i) % (numberOfSteps - 1)))
+                    .append("</title></steps>")
+                    .append("<steps type=\"close\"><title>")
+                    .append(stepTitle(1 + (3 * i + 1) % (numberOfSteps - 1)))
+                    .append("</title></steps>")
+                    .append("<priority value=\"10\"><title>")
+                    .append(stepTitle(1 + (3 * i + 2) % (numberOfSteps - 1)))
+                    .append("</title></priority>")
+                    .append("</change>");
+        }
+        xml.append("</config>");
+        return ChangeConfiguration.fromConfiguration(parse(xml.toString()));
+    }
+
+    /**
+     * parse a configuration the same way as the plugin configuration is read within Goobi workflow
+     *
+     * @param xml the configuration
+     * @return the parsed configuration
+     */
+    static XMLConfiguration parse(String xml) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled(true);
+        try {
+            config.load(new StringReader(xml));
+        } catch (ConfigurationException e) {
+            throw new IllegalArgumentException(e);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return config;
+    }
+
+    /**
+     * create a plugin instance for the plugin step of the process without reading the configuration file
+     *
+     * @param process the process
+     * @param configuration the rules to use
+     * @return the plugin
+     */
+    static ChangeWorkflowPlugin createPlugin(Process process, ChangeConfiguration configuration) {
+        ChangeWorkflowPlugin plugin = new ChangeWorkflowPlugin();
+        plugin.setProcess(process);
+        plugin.setStep(process.getSchritte().get(0));
+        plugin.setConfiguration(configuration);
+        plugin.setChanges(configuration.getRules());
+        return plugin;
+    }
+}
@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of a single compiled property condition against an already replaced value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConditionBenchmark {
+
+    @Param({ "is", "not", "matches", "in", "startsWith", "lt" })
+    private String condition;
+
+    private String realValue;
+    private ConditionMatcher matcher;
+
+    @Setup
+    public void setup() {
+        List<String> values;
+        switch (condition) {
+            case "matches":
+                values = Collections.singletonList("\\s*Manu.*");
+                realValue = " Manuscript ";
+                break;
+            case "in":
+                values = Arrays.asList("Monograph", "Periodical", "Map", "Manuscript");
+                realValue = " Manuscript ";
+                break;
+            case "startsWith":
+                values = Collections.singletonList("Manu");
+                realValue = " Manuscript ";
+                break;
+            case "lt":
+                values = Collections.singletonList("1900");
+                realValue = "1850";
+                break;
+            default:
+                values = Collections.singletonList("Manuscript");
+                realValue = " Manuscript ";
+                break;
+        }
+        matcher = ConditionMatcher.compile(condition, values);
+    }
+
+    @Benchmark
+    public boolean checkCondition() {
+        return matcher.matches(realValue);
+    }
+}
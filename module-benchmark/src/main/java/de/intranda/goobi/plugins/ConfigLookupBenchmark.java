@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.beans.Step;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Getting the rules of a step: the cached lookup including the check of the configuration file, compared to parsing the configuration again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigLookupBenchmark {
+
+    private static final int RULES = 20;
+    private static final int STEPS = 50;
+
+    private Path configFile;
+    private Step step;
+    private String xml;
+
+    @Setup
+    public void setup() throws IOException {
+        configFile = Files.createTempFile("plugin_intranda_step_changeWorkflow", ".xml");
+        step = BenchmarkFixtures.createProcess(STEPS).getSchritte().get(0);
+        StringBuilder sb = new StringBuilder("<config>");
+        for (int i = 0; i < RULES; ++i) {
+            sb.append("<change type=\"property\"><propertyName>{process.Template}</propertyName><propertyValue>Manuscript</propertyValue>")
+                    .append("<steps type=\"open\"><title>")
+                    .append(BenchmarkFixtures.stepTitle(1 + i % (STEPS - 1)))
+                    .append("</title></steps><priority value=\"10\"><title>")
+                    .append(BenchmarkFixtures.stepTitle(1 + (i + 1) % (STEPS - 1)))
+                    .append("</title></priority></change>");
+        }
+        xml = sb.append("</config>").toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ChangeRuleCache.invalidate();
+        Files.deleteIfExists(configFile);
+    }
+
+    @Benchmark
+    public ChangeConfiguration cachedLookup() {
+        ChangeRuleCache.checkConfigurationFile(configFile);
+        return ChangeRuleCache.getConfiguration(step, this::parse);
+    }
+
+    @Benchmark
+    public ChangeConfiguration parse() {
+        return ChangeConfiguration.fromConfiguration(BenchmarkFixtures.parse(xml));
+    }
+}
@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Merging a growing number of matching &lt;change&gt; blocks into a plan and applying the status and priority changes to a process with 200
+ * steps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanBenchmark {
+
+    private static final int STEPS = 200;
+    /** number of fresh processes per invocation, so that the time of an invocation is well above the resolution of the timer */
+    private static final int PROCESSES = 100;
+
+    @State(Scope.Thread)
+    public static class Rules {
+
+        @Param({ "1", "10", "100" })
+        private int rules;
+
+        private ChangeConfiguration configuration;
+
+        @Setup
+        public void setup() {
+            configuration = BenchmarkFixtures.createConfiguration(rules, STEPS);
+        }
+    }
+
+    /**
+     * applying the plan changes the steps of the process, so each process is only used once. Otherwise all but the first call would measure a plan
+     * that changes nothing. An invocation applies the plan to a batch of new processes, so that the setup and the timestamps of each invocation are
+     * spread over many operations.
+     */
+    @State(Scope.Thread)
+    public static class FreshProcesses {
+
+        private final ChangeWorkflowPlugin[] plugins = new ChangeWorkflowPlugin[PROCESSES];
+
+        @Setup(Level.Invocation)
+        public void setup(Rules rules) {
+            for (int i = 0; i < PROCESSES; ++i) {
+                plugins[i] = BenchmarkFixtures.createPlugin(BenchmarkFixtures.createProcess(STEPS), rules.configuration);
+            }
+        }
+    }
+
+    @Benchmark
+    public ChangePlan mergeRules(Rules rules) {
+        ChangePlan plan = new ChangePlan(BenchmarkFixtures.PLUGIN_STEP_TITLE);
+        for (ChangeRule rule : rules.configuration.getRules()) {
+            plan.merge(rule);
+        }
+        return plan;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROCESSES)
+    public void mergeAndApply(Rules rules, FreshProcesses fresh, Blackhole blackhole) {
+        for (ChangeWorkflowPlugin plugin : fresh.plugins) {
+            plugin.applyPlan(mergeRules(rules));
+            blackhole.consume(plugin.getProcess());
+        }
+    }
+}
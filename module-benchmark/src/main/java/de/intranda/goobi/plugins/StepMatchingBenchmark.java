@@ -0,0 +1,90 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matching the steps of a process against a plan of ten rules, for workflows of different length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepMatchingBenchmark {
+
+    /** number of fresh processes per invocation, so that the time of an invocation is well above the resolution of the timer */
+    private static final int PROCESSES = 100;
+
+    @State(Scope.Thread)
+    public static class Workflow {
+
+        @Param({ "50", "100", "500" })
+        private int steps;
+
+        private Process process;
+        private ChangeConfiguration configuration;
+        private ChangePlan plan;
+
+        @Setup
+        public void setup() {
+            process = BenchmarkFixtures.createProcess(steps);
+            configuration = BenchmarkFixtures.createConfiguration(10, steps);
+            plan = new ChangePlan(BenchmarkFixtures.PLUGIN_STEP_TITLE);
+            for (ChangeRule rule : configuration.getRules()) {
+                plan.merge(rule);
+            }
+        }
+    }
+
+    /**
+     * applying the plan changes the steps of the process, so each process is only used once. Otherwise all but the first call would measure a plan
+     * that changes nothing. An invocation applies the plan to a batch of new processes, so that the setup and the timestamps of each invocation are
+     * spread over many operations.
+     */
+    @State(Scope.Thread)
+    public static class FreshProcesses {
+
+        private final ChangeWorkflowPlugin[] plugins = new ChangeWorkflowPlugin[PROCESSES];
+
+        @Setup(Level.Invocation)
+        public void setup(Workflow workflow) {
+            for (int i = 0; i < PROCESSES; ++i) {
+                plugins[i] = BenchmarkFixtures.createPlugin(BenchmarkFixtures.createProcess(workflow.steps), workflow.configuration);
+            }
+        }
+    }
+
+    @Benchmark
+    public void lookupStepChanges(Workflow workflow, Blackhole blackhole) {
+        for (Step step : workflow.process.getSchritteList()) {
+            blackhole.consume(workflow.plan.getStepChange(step.getTitel()));
+            blackhole.consume(workflow.plan.getPriority(step.getTitel()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROCESSES)
+    public void applyPlan(Workflow workflow, FreshProcesses fresh, Blackhole blackhole) {
+        for (ChangeWorkflowPlugin plugin : fresh.plugins) {
+            plugin.applyPlan(workflow.plan);
+            blackhole.consume(plugin.getProcess());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Reading a single top struct metadata from a METS file with the given number of pages: the streaming reader compared to building the complete
+ * DOM tree, which is a lower bound of the work UGH does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopStructReaderBenchmark {
+
+    @Param({ "10", "2000" })
+    private int pages;
+
+    private byte[] mets;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\"")
+                .append(" xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">")
+                .append("<mets:dmdSec ID=\"DMDLOG_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>")
+                .append("<goobi:metadata name=\"TitleDocMain\">Title</goobi:metadata>")
+                .append("<goobi:metadata name=\"CatalogIDDigital\">PPN123456789</goobi:metadata>")
+                .append("</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>")
+                .append("<mets:fileSec><mets:fileGrp USE=\"LOCAL\">");
+        for (int i = 1; i <= pages; ++i) {
+            sb.append("<mets:file ID=\"FILE_").append(i).append("\" MIMETYPE=\"image/tiff\"><mets:FLocat LOCTYPE=\"URL\" xlink:href=\"file:///")
+                    .append(i)
+                    .append(".tif\"/></mets:file>");
+        }
+        sb.append("</mets:fileGrp></mets:fileSec>")
+                .append("<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\">")
+                .append("<mets:div ID=\"LOG_0001\" TYPE=\"Chapter\"/></mets:div></mets:structMap>")
+                .append("<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0000\" TYPE=\"BoundBook\">");
+        for (int i = 1; i <= pages; ++i) {
+            sb.append("<mets:div ID=\"PHYS_").append(i).append("\" ORDER=\"").append(i).append("\" TYPE=\"page\"><mets:fptr FILEID=\"FILE_")
+                    .append(i)
+                    .append("\"/></mets:div>");
+        }
+        sb.append("</mets:div></mets:structMap></mets:mets>");
+        mets = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String stream() throws XMLStreamException {
+        return TopStructMetadataReader.readValue(new ByteArrayInputStream(mets), "CatalogIDDigital");
+    }
+
+    @Benchmark
+    public Document completeDocument() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(mets));
+    }
+}
@@ -0,0 +1,545 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import javax.sql.DataSource;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.GoobiProperty.PropertyOwnerType;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.enums.StepStatus;
+
+/**
+ * Load test of complete runs of the plugin against an embedded H2 database in MySQL mode. The database contains the Goobi workflow tables the
+ * plugin and the managers of Goobi workflow read and write, filled with synthetic processes, steps, properties and metadata. The plugin is then
+ * run concurrently for all processes, and the throughput, the latency percentiles and the number of statements per run are reported.
+ *
+ * The plugin is initialized as in Goobi workflow: its configuration file is read from a temporary configuration folder, and the MySQLHelper of
+ * Goobi workflow gets its connections from the H2 database via JNDI. So the whole save path is measured, including the creation of properties,
+ * the change of user groups and the switch of the process template with the managers of Goobi workflow.
+ *
+ * <pre>
+ * mvn -f module-benchmark test-compile exec:java -Dexec.args="[processes] [threads] [duplicateIndex]"
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final String URL = "jdbc:h2:mem:loadtest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE";
+
+    private static final int STEPS_PER_PROCESS = 20;
+    /** step of the template with another script, it replaces the step of the process */
+    private static final int REPLACED_STEP = 10;
+    /** step of the template with the user group, the group is assigned to the kept step of the process */
+    private static final int GROUP_STEP = 6;
+
+    private static final String TEMPLATE_TITLE = "Load test template";
+    private static final String USERGROUP = "Load test";
+
+    private static final String PROCESS_INSERT = "INSERT INTO prozesse (ProzesseID, Titel, IstTemplate, ProjekteID) VALUES (?, ?, ?, 1)";
+    private static final String STEP_INSERT = "INSERT INTO schritte (SchritteID, Titel, Reihenfolge, Prioritaet, Bearbeitungsstatus, ProzesseID, "
+            + "scriptName1) VALUES (?, ?, ?, 0, ?, ?, ?)";
+    private static final String PROPERTY_INSERT =
+            "INSERT INTO properties (id, property_name, property_value, object_id, object_type) VALUES (?, ?, ?, ?, 'process')";
+    private static final String METADATA_INSERT = "INSERT INTO metadata (processid, name, value) VALUES (?, ?, ?)";
+
+    private static final String RULES = "<config><project>*</project><step>*</step>"
+            // rule answered from the process properties, creates a property and assigns a user group
+            + "<change type=\"property\">"
+            + "<propertyName>{process.Template}</propertyName><propertyValue>Manuscript</propertyValue><propertyCondition>is</propertyCondition>"
+            + "<useMetadataIndex>true</useMetadataIndex>"
+            + "<steps type=\"open\"><title>" + BenchmarkFixtures.stepTitle(2) + "</title></steps>"
+            + "<priority value=\"10\"><title>" + BenchmarkFixtures.stepTitle(3) + "</title></priority>"
+            + "<usergroups step=\"" + BenchmarkFixtures.stepTitle(5) + "\"><usergroup>" + USERGROUP + "</usergroup></usergroups>"
+            + "<properties><property name=\"Workflow\" value=\"Manuscript\" /></properties>"
+            + "<log type=\"info\">Manuscript workflow</log>"
+            + "</change>"
+            // query on the process table, updates a property
+            + "<change type=\"search\">"
+            + "<query>prozesse.Titel = '{processtitle}_archive'</query><condition>exists</condition>"
+            + "<steps type=\"close\"><title>" + BenchmarkFixtures.stepTitle(4) + "</title></steps>"
+            + "<properties><property name=\"Archived\" value=\"true\" /></properties>"
+            + "</change>"
+            // metadata of the file compared with the metadata table
+            + "<change type=\"checkDuplicates\">"
+            + "<metadata>SharedThesisId</metadata>"
+            + "<steps type=\"lock\"><title>" + BenchmarkFixtures.PLUGIN_STEP_TITLE + "</title></steps>"
+            + "<log type=\"error\">Duplicate thesis</log>"
+            + "</change>"
+            // switch of the process template
+            + "<change type=\"property\">"
+            + "<propertyName>{process.Template}</propertyName><propertyValue>Switch</propertyValue><propertyCondition>is</propertyCondition>"
+            + "<useMetadataIndex>true</useMetadataIndex>"
+            + "<workflow>" + TEMPLATE_TITLE + "</workflow>"
+            + "</change>"
+            + "</config>";
+
+    private LoadTest() {
+        // static access only
+    }
+
+    /**
+     * run the load test
+     *
+     * @param args number of processes (5000), number of threads (8) and optionally 'duplicateIndex' to use the index for checkDuplicates
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int processes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        boolean duplicateIndex = args.length > 2 && "duplicateIndex".equals(args[2]);
+        // the first runs warm up the JVM and are not measured
+        int warmup = Math.max(1, processes / 10);
+
+        JdbcConnectionPool pool = JdbcConnectionPool.create(URL, "sa", "");
+        pool.setMaxConnections(threads * (ConditionExecutor.DEFAULT_THREADS + 2) + 2);
+        CountingDataSource dataSource = new CountingDataSource(pool);
+        // the MySQLHelper of Goobi workflow looks up its data source via JNDI
+        ContextFactory.dataSource = dataSource;
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, ContextFactory.class.getName());
+
+        Path folder = Files.createTempDirectory("changeWorkflow-loadtest");
+        try {
+            Path configFolder = folder.resolve("config");
+            Files.createDirectories(configFolder);
+            String pluginConfig = "<config_plugin><lookupCache ttl=\"300\" size=\"1000\" /><duplicateIndex enabled=\"" + duplicateIndex + "\" />"
+                    + RULES + "</config_plugin>";
+            Files.write(configFolder.resolve("plugin_intranda_step_changeWorkflow.xml"), pluginConfig.getBytes(StandardCharsets.UTF_8));
+            ConfigurationHelper.getInstance().setParameter("KonfigurationVerzeichnis", configFolder.toString() + File.separator);
+
+            System.out.println("creating " + (warmup + processes) + " processes ...");
+            List<Process> all = createDatabase(pool, folder, warmup + processes);
+
+            run(all.subList(0, warmup), threads);
+            dataSource.reset();
+            ChangeWorkflowMetrics.getInstance().reset();
+            int journalEntries = count(pool, "SELECT COUNT(*) FROM journal");
+            int stepCount = count(pool, "SELECT COUNT(*) FROM schritte");
+
+            long start = System.nanoTime();
+            Result result = run(all.subList(warmup, all.size()), threads);
+            long elapsed = System.nanoTime() - start;
+
+            report(processes, threads, duplicateIndex, elapsed, result, dataSource, count(pool, "SELECT COUNT(*) FROM journal") - journalEntries,
+                    count(pool, "SELECT COUNT(*) FROM schritte") - stepCount);
+        } finally {
+            pool.dispose();
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * create the tables, the processes in the database and the metadata files. For every second process there is an archived process with the
+     * title of the process and the suffix _archive, whose plugin step is already finished. For every fourth process it has the same
+     * SharedThesisId as its process. Every third process matches the rule with the user group and the new property, every fifth of the others
+     * switches to the process template.
+     *
+     * @return the processes to run the plugin for, with the same ids as in the database
+     */
+    private static List<Process> createDatabase(JdbcConnectionPool pool, Path folder, int count) throws SQLException, IOException {
+        Project project = new Project();
+        project.setId(1);
+        project.setTitel("Load test");
+        // the archived processes use the ids after the processes
+        int templateId = 2 * count + 1;
+
+        List<Process> processes = new ArrayList<>(count);
+        try (Connection connection = pool.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : readSchema()) {
+                    statement.execute(sql);
+                }
+                statement.execute("INSERT INTO projekte (ProjekteID, Titel) VALUES (1, 'Load test')");
+                statement.execute("INSERT INTO benutzergruppen (BenutzergruppenID, titel, berechtigung) VALUES (1, '" + USERGROUP + "', 1)");
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement processInsert = connection.prepareStatement(PROCESS_INSERT);
+                    PreparedStatement stepInsert = connection.prepareStatement(STEP_INSERT);
+                    PreparedStatement propertyInsert = connection.prepareStatement(PROPERTY_INSERT);
+                    PreparedStatement metadataInsert = connection.prepareStatement(METADATA_INSERT)) {
+                createTemplate(connection, processInsert, stepInsert, templateId);
+                for (int i = 1; i <= count; ++i) {
+                    String title = "process_" + i;
+                    String thesisId = "thesis_" + i;
+                    String template = i % 3 == 0 ? "Manuscript" : i % 5 == 0 ? "Switch" : "Monograph";
+
+                    Process process = new MetadataFileProcess(folder.resolve(i + "/meta.xml"));
+                    process.setId(i);
+                    process.setTitel(title);
+                    process.setProjekt(project);
+                    process.setProjectId(1);
+                    List<Step> steps = new ArrayList<>(STEPS_PER_PROCESS);
+                    for (int s = 0; s < STEPS_PER_PROCESS; ++s) {
+                        Step step = new Step();
+                        step.setId(getStepId(i, s));
+                        step.setTitel(s == 0 ? BenchmarkFixtures.PLUGIN_STEP_TITLE : BenchmarkFixtures.stepTitle(s));
+                        step.setReihenfolge(s + 1);
+                        step.setPrioritaet(0);
+                        step.setBearbeitungsstatusEnum(s == 0 ? StepStatus.INWORK : StepStatus.LOCKED);
+                        step.setHomeverzeichnisNutzen((short) 0);
+                        // the assignments are known, so they are not loaded from the database
+                        step.setBenutzergruppen(new ArrayList<>());
+                        step.setBenutzer(new ArrayList<>());
+                        step.setProzess(process);
+                        steps.add(step);
+                    }
+                    process.setSchritte(steps);
+                    List<GoobiProperty> properties = new ArrayList<>();
+                    properties.add(createProperty(process, i * 10, "Template", template));
+                    properties.add(createProperty(process, i * 10 + 1, "Archived", "false"));
+                    process.setEigenschaften(properties);
+                    processes.add(process);
+
+                    addProcess(processInsert, stepInsert, i, title, false, STEPS_PER_PROCESS, StepStatus.INWORK);
+                    for (GoobiProperty property : properties) {
+                        propertyInsert.setInt(1, property.getId());
+                        propertyInsert.setString(2, property.getPropertyName());
+                        propertyInsert.setString(3, property.getPropertyValue());
+                        propertyInsert.setInt(4, i);
+                        propertyInsert.addBatch();
+                    }
+                    addMetadata(metadataInsert, i, "CatalogIDDigital", "PPN" + i);
+                    addMetadata(metadataInsert, i, "SharedThesisId", thesisId);
+                    writeMetadataFile(folder.resolve(i + "/meta.xml"), "PPN" + i, thesisId);
+
+                    if (i % 2 == 0) {
+                        int archiveId = count + i;
+                        addProcess(processInsert, stepInsert, archiveId, title + "_archive", false, STEPS_PER_PROCESS, StepStatus.DONE);
+                        addMetadata(metadataInsert, archiveId, "SharedThesisId", i % 4 == 0 ? thesisId : "other_" + i);
+                    }
+                    if (i % 1000 == 0) {
+                        executeBatches(processInsert, stepInsert, propertyInsert, metadataInsert);
+                    }
+                }
+                executeBatches(processInsert, stepInsert, propertyInsert, metadataInsert);
+            }
+            // the managers of Goobi workflow insert rows with generated ids after the ones created here
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE prozesse ALTER COLUMN ProzesseID RESTART WITH " + (templateId + 1));
+                statement.execute("ALTER TABLE schritte ALTER COLUMN SchritteID RESTART WITH " + (getStepId(templateId + 1, 0) + 1));
+                statement.execute("ALTER TABLE properties ALTER COLUMN id RESTART WITH " + ((count + 1) * 10));
+            }
+            connection.commit();
+        }
+        return processes;
+    }
+
+    /**
+     * create the process template. It has the steps of the processes, but one of them has another script and is replaced, one of them has a user
+     * group and there is an additional step at the end.
+     */
+    private static void createTemplate(Connection connection, PreparedStatement processInsert, PreparedStatement stepInsert, int templateId)
+            throws SQLException {
+        addProcess(processInsert, stepInsert, templateId, TEMPLATE_TITLE, true, STEPS_PER_PROCESS + 1, StepStatus.INWORK);
+        executeBatches(processInsert, stepInsert);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE schritte SET scriptName1 = 'template script' WHERE SchritteID = " + getStepId(templateId, REPLACED_STEP));
+            statement.execute("INSERT INTO schritteberechtigtegruppen (BenutzerGruppenID, schritteID) VALUES (1, " + getStepId(templateId, GROUP_STEP)
+                    + ")");
+        }
+    }
+
+    private static int getStepId(int processId, int index) {
+        // the template has one more step, the id after the last step of the template is not used by a process
+        return processId * (STEPS_PER_PROCESS + 1) + index;
+    }
+
+    private static GoobiProperty createProperty(Process process, int id, String name, String value) {
+        GoobiProperty property = new GoobiProperty(PropertyOwnerType.PROCESS);
+        property.setId(id);
+        property.setPropertyName(name);
+        property.setPropertyValue(value);
+        property.setOwner(process);
+        return property;
+    }
+
+    private static void addProcess(PreparedStatement processInsert, PreparedStatement stepInsert, int processId, String title, boolean template,
+            int steps, StepStatus pluginStep) throws SQLException {
+        processInsert.setInt(1, processId);
+        processInsert.setString(2, title);
+        processInsert.setBoolean(3, template);
+        processInsert.addBatch();
+        for (int s = 0; s < steps; ++s) {
+            stepInsert.setInt(1, getStepId(processId, s));
+            stepInsert.setString(2, s == 0 ? BenchmarkFixtures.PLUGIN_STEP_TITLE : BenchmarkFixtures.stepTitle(s));
+            stepInsert.setInt(3, s + 1);
+            stepInsert.setInt(4, (s == 0 ? pluginStep : StepStatus.LOCKED).getValue());
+            stepInsert.setInt(5, processId);
+            stepInsert.setNull(6, Types.VARCHAR);
+            stepInsert.addBatch();
+        }
+    }
+
+    private static void addMetadata(PreparedStatement metadataInsert, int processId, String name, String value) throws SQLException {
+        metadataInsert.setInt(1, processId);
+        metadataInsert.setString(2, name);
+        metadataInsert.setString(3, value);
+        metadataInsert.addBatch();
+    }
+
+    private static void executeBatches(PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * @return the statements of the schema, without comments
+     */
+    private static List<String> readSchema() throws IOException {
+        String schema;
+        try (InputStream in = LoadTest.class.getResourceAsStream("/loadtest-schema.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String withoutComments = Arrays.stream(schema.split("\n")).filter(line -> !line.trim().startsWith("--")).collect(Collectors.joining("\n"));
+        List<String> statements = new ArrayList<>();
+        for (String sql : withoutComments.split(";")) {
+            if (!sql.isBlank()) {
+                statements.add(sql.trim());
+            }
+        }
+        return statements;
+    }
+
+    private static void writeMetadataFile(Path file, String catalogId, String thesisId) throws IOException {
+        String mets = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\""
+                + " xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\">"
+                + "<mets:dmdSec ID=\"DMDLOG_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>"
+                + "<goobi:metadata name=\"TitleDocMain\">Thesis</goobi:metadata>"
+                + "<goobi:metadata name=\"CatalogIDDigital\">" + catalogId + "</goobi:metadata>"
+                + "<goobi:metadata name=\"SharedThesisId\">" + thesisId + "</goobi:metadata>"
+                + "</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>"
+                + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\"/></mets:structMap>"
+                + "</mets:mets>";
+        Files.createDirectories(file.getParent());
+        Files.write(file, mets.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * run the plugin for all processes on a pool with the given number of threads
+     */
+    private static Result run(List<Process> processes, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PluginReturnValue>> futures = new ArrayList<>(processes.size());
+            long[] latencies = new long[processes.size()];
+            for (int i = 0; i < processes.size(); ++i) {
+                Process process = processes.get(i);
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    ChangeWorkflowPlugin plugin = new ChangeWorkflowPlugin();
+                    long start = System.nanoTime();
+                    // there is no user session outside of Goobi workflow
+                    plugin.initialize(process.getSchritte().get(0), "", "- load test -");
+                    PluginReturnValue value = plugin.run();
+                    latencies[index] = System.nanoTime() - start;
+                    return value;
+                }));
+            }
+            Map<PluginReturnValue, Integer> results = new EnumMap<>(PluginReturnValue.class);
+            for (Future<PluginReturnValue> future : futures) {
+                results.merge(future.get(), 1, Integer::sum);
+            }
+            return new Result(latencies, results);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static int count(JdbcConnectionPool pool, String sql) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void report(int processes, int threads, boolean duplicateIndex, long elapsedNanos, Result result, CountingDataSource dataSource,
+            int journalEntries, int insertedSteps) {
+        long[] latencies = result.latencies.clone();
+        Arrays.sort(latencies);
+        ChangeWorkflowMetrics metrics = ChangeWorkflowMetrics.getInstance();
+        System.out.println();
+        System.out.printf("processes            %d (%d threads, duplicate index %s)%n", processes, threads, duplicateIndex ? "enabled" : "disabled");
+        System.out.printf("processes/s          %.1f%n", processes / (elapsedNanos / 1e9));
+        System.out.printf("latency p50          %.2f ms%n", percentile(latencies, 0.50));
+        System.out.printf("latency p90          %.2f ms%n", percentile(latencies, 0.90));
+        System.out.printf("latency p99          %.2f ms%n", percentile(latencies, 0.99));
+        System.out.printf("latency max          %.2f ms%n", latencies[latencies.length - 1] / 1e6);
+        System.out.printf("statements/run       %.2f%n", (double) dataSource.statements.get() / processes);
+        System.out.printf("connections/run      %.2f%n", (double) dataSource.connections.get() / processes);
+        System.out.printf("transactions/run     %.2f%n", (double) dataSource.transactions.get() / processes);
+        System.out.printf("results              %s%n", result.results);
+        System.out.printf("journal entries      %d%n", journalEntries);
+        System.out.printf("steps inserted       %d (net)%n", insertedSteps);
+        System.out.printf("search queries       %d, mean %.2f ms%n", metrics.getSearchQueryCount(), metrics.getSearchQueryMeanMillis());
+        System.out.printf("duplicate queries    %d, mean %.2f ms%n", metrics.getDuplicateQueryCount(), metrics.getDuplicateQueryMeanMillis());
+        System.out.printf("saves                %d, mean %.2f ms%n", metrics.getSaveCount(), metrics.getSaveMeanMillis());
+        System.out.printf("conflicts            %d%n", metrics.getConflicts());
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(folder)) {
+            // the files before their folders
+            paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * latencies of all runs and the number of runs per result
+     */
+    private static class Result {
+        private final long[] latencies;
+        private final Map<PluginReturnValue, Integer> results;
+
+        Result(long[] latencies, Map<PluginReturnValue, Integer> results) {
+            this.latencies = latencies;
+            this.results = results;
+        }
+    }
+
+    /**
+     * process whose metadata file is stored in the folder of the load test
+     */
+    private static class MetadataFileProcess extends Process {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path metadataFile;
+
+        MetadataFileProcess(Path metadataFile) {
+            this.metadataFile = metadataFile;
+        }
+
+        @Override
+        public String getMetadataFilePath() {
+            return metadataFile.toString();
+        }
+    }
+
+    /**
+     * JNDI context of the load test. Every name resolves to the same object, which is also the data source, so the lookup of the database
+     * resource of Goobi workflow returns the H2 database regardless of the names it uses.
+     */
+    public static class ContextFactory implements InitialContextFactory {
+
+        private static volatile CountingDataSource dataSource;
+
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) {
+            return (Context) Proxy.newProxyInstance(LoadTest.class.getClassLoader(), new Class<?>[] { Context.class, DataSource.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "lookup":
+                                return proxy;
+                            case "getConnection":
+                                return dataSource.getConnection();
+                            case "close":
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return "load test context";
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    /**
+     * connections of the pool whose statements, commits and connections are counted
+     */
+    private static class CountingDataSource {
+        private final JdbcConnectionPool pool;
+        private final AtomicLong statements = new AtomicLong();
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong connections = new AtomicLong();
+
+        CountingDataSource(JdbcConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        void reset() {
+            statements.set(0);
+            transactions.set(0);
+            connections.set(0);
+        }
+
+        Connection getConnection() throws SQLException {
+            connections.incrementAndGet();
+            return (Connection) count(pool.getConnection(), Connection.class);
+        }
+
+        /**
+         * wrap a connection or statement, a batch counts as a single statement
+         */
+        private Object count(Object target, Class<?> type) {
+            return Proxy.newProxyInstance(LoadTest.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+                String name = method.getName();
+                if (name.startsWith("execute")) {
+                    statements.incrementAndGet();
+                } else if ("commit".equals(name)) {
+                    transactions.incrementAndGet();
+                }
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                Class<?> returnType = method.getReturnType();
+                if (result instanceof Statement && returnType.isInterface() && Statement.class.isAssignableFrom(returnType)) {
+                    return count(result, returnType);
+                }
+                return result;
+            });
+        }
+    }
+}
@@ -0,0 +1,195 @@
+-- Tables of Goobi workflow that are read and written by the plugin and by the managers it calls, for H2 in MySQL mode.
+-- Only the columns are defined, the managers read them by name. If the load test fails with an unknown column after an update of Goobi workflow,
+-- the column must be added here.
+
+CREATE TABLE projekte (
+  ProjekteID INT AUTO_INCREMENT PRIMARY KEY,
+  Titel VARCHAR(255),
+  useDmsImport BOOLEAN DEFAULT FALSE,
+  dmsImportTimeOut INT,
+  dmsImportRootPath VARCHAR(255),
+  dmsImportImagesPath VARCHAR(255),
+  dmsImportSuccessPath VARCHAR(255),
+  dmsImportErrorPath VARCHAR(255),
+  dmsImportCreateProcessFolder BOOLEAN DEFAULT FALSE,
+  fileFormatInternal VARCHAR(255),
+  fileFormatDmsExport VARCHAR(255),
+  metsRightsOwner TEXT,
+  metsRightsOwnerLogo TEXT,
+  metsRightsOwnerSite TEXT,
+  metsRightsOwnerMail TEXT,
+  metsRightsSponsor TEXT,
+  metsRightsSponsorLogo TEXT,
+  metsRightsSponsorSiteURL TEXT,
+  metsRightsLicense TEXT,
+  metsDigiprovReference TEXT,
+  metsDigiprovPresentation TEXT,
+  metsDigiprovReferenceAnchor TEXT,
+  metsDigiprovPresentationAnchor TEXT,
+  metsPointerPath TEXT,
+  metsPointerPathAnchor TEXT,
+  metsPurl TEXT,
+  metsContentIDs TEXT,
+  startDate DATETIME,
+  endDate DATETIME,
+  numberOfPages INT,
+  numberOfVolumes INT,
+  projectIsArchived BOOLEAN DEFAULT FALSE,
+  srurl TEXT,
+  institution_id INT,
+  project_identifier VARCHAR(255),
+  iiifUrl TEXT,
+  dfgViewerUrl TEXT,
+  linkToDfgViewer BOOLEAN DEFAULT FALSE
+);
+
+CREATE TABLE batches (
+  id INT AUTO_INCREMENT PRIMARY KEY,
+  batchName VARCHAR(255),
+  batchLabel VARCHAR(255),
+  startDate DATETIME,
+  endDate DATETIME
+);
+
+CREATE TABLE prozesse (
+  ProzesseID INT AUTO_INCREMENT PRIMARY KEY,
+  Titel VARCHAR(255),
+  ausgabename VARCHAR(255),
+  IstTemplate BOOLEAN DEFAULT FALSE,
+  swappedOut BOOLEAN DEFAULT FALSE,
+  inAuswahllisteAnzeigen BOOLEAN DEFAULT FALSE,
+  sortHelperStatus VARCHAR(20),
+  sortHelperImages INT DEFAULT 0,
+  sortHelperArticles INT DEFAULT 0,
+  erstellungsdatum DATETIME,
+  ProjekteID INT,
+  MetadatenKonfigurationID INT,
+  sortHelperDocstructs INT DEFAULT 0,
+  sortHelperMetadata INT DEFAULT 0,
+  wikifield TEXT,
+  batchID INT,
+  docketID INT,
+  mediaFolderExists BOOLEAN DEFAULT FALSE,
+  pauseAutomaticExecution BOOLEAN DEFAULT FALSE,
+  exportValidator INT
+);
+CREATE INDEX prozesse_titel ON prozesse (Titel);
+
+CREATE TABLE schritte (
+  SchritteID INT AUTO_INCREMENT PRIMARY KEY,
+  Titel VARCHAR(255),
+  Prioritaet INT DEFAULT 0,
+  Reihenfolge INT,
+  Bearbeitungsstatus INT,
+  BearbeitungsZeitpunkt DATETIME,
+  BearbeitungsBeginn DATETIME,
+  BearbeitungsEnde DATETIME,
+  BearbeitungsBenutzerID INT,
+  homeverzeichnisNutzen SMALLINT DEFAULT 0,
+  typMetadaten BOOLEAN DEFAULT FALSE,
+  typAutomatisch BOOLEAN DEFAULT FALSE,
+  typImportFileUpload BOOLEAN DEFAULT FALSE,
+  typExportRus BOOLEAN DEFAULT FALSE,
+  typImagesLesen BOOLEAN DEFAULT FALSE,
+  typImagesSchreiben BOOLEAN DEFAULT FALSE,
+  typExportDMS BOOLEAN DEFAULT FALSE,
+  typBeimAnnehmenModul BOOLEAN DEFAULT FALSE,
+  typBeimAnnehmenAbschliessen BOOLEAN DEFAULT FALSE,
+  typBeimAnnehmenModulUndAbschliessen BOOLEAN DEFAULT FALSE,
+  typBeimAbschliessenVerifizieren BOOLEAN DEFAULT FALSE,
+  typModulName VARCHAR(255),
+  typScriptStep BOOLEAN DEFAULT FALSE,
+  typAutomatischScriptpfad TEXT,
+  scriptName1 VARCHAR(255),
+  scriptName2 VARCHAR(255),
+  typAutomatischScriptpfad2 TEXT,
+  scriptName3 VARCHAR(255),
+  typAutomatischScriptpfad3 TEXT,
+  scriptName4 VARCHAR(255),
+  typAutomatischScriptpfad4 TEXT,
+  scriptName5 VARCHAR(255),
+  typAutomatischScriptpfad5 TEXT,
+  ProzesseID INT,
+  edittype INT,
+  batchStep BOOLEAN DEFAULT FALSE,
+  stepPlugin VARCHAR(255),
+  validationPlugin VARCHAR(255),
+  delayStep BOOLEAN DEFAULT FALSE,
+  updateMetadataIndex BOOLEAN DEFAULT FALSE,
+  generateDocket BOOLEAN DEFAULT FALSE,
+  httpStep BOOLEAN DEFAULT FALSE,
+  httpMethod VARCHAR(15),
+  httpUrl TEXT,
+  httpJsonBody TEXT,
+  httpCloseStep BOOLEAN DEFAULT FALSE,
+  httpEscapeBodyJson BOOLEAN DEFAULT FALSE,
+  messageQueue VARCHAR(255),
+  typAutomaticThumbnail BOOLEAN DEFAULT FALSE,
+  automaticThumbnailSettingsYaml TEXT
+);
+CREATE INDEX schritte_prozesse ON schritte (ProzesseID);
+CREATE INDEX schritte_titel ON schritte (Titel, Bearbeitungsstatus);
+
+CREATE TABLE benutzergruppen (
+  BenutzergruppenID INT AUTO_INCREMENT PRIMARY KEY,
+  titel VARCHAR(255),
+  berechtigung INT,
+  roles TEXT,
+  institution_id INT
+);
+
+CREATE TABLE benutzer (
+  BenutzerID INT AUTO_INCREMENT PRIMARY KEY,
+  Vorname VARCHAR(255),
+  Nachname VARCHAR(255),
+  login VARCHAR(255),
+  passwort VARCHAR(255),
+  IstAktiv BOOLEAN DEFAULT TRUE,
+  isVisible VARCHAR(255),
+  email VARCHAR(255)
+);
+
+CREATE TABLE schritteberechtigtegruppen (
+  BenutzerGruppenID INT,
+  schritteID INT
+);
+CREATE INDEX schritteberechtigtegruppen_schritte ON schritteberechtigtegruppen (schritteID);
+
+CREATE TABLE schritteberechtigtebenutzer (
+  BenutzerID INT,
+  schritteID INT
+);
+CREATE INDEX schritteberechtigtebenutzer_schritte ON schritteberechtigtebenutzer (schritteID);
+
+CREATE TABLE properties (
+  id INT AUTO_INCREMENT PRIMARY KEY,
+  property_name VARCHAR(255),
+  property_value TEXT,
+  required BOOLEAN DEFAULT FALSE,
+  datatype INT,
+  object_id INT,
+  object_type VARCHAR(50),
+  creation_date DATETIME,
+  container VARCHAR(255)
+);
+CREATE INDEX properties_object ON properties (object_id, object_type);
+
+CREATE TABLE metadata (
+  processid INT,
+  name VARCHAR(255),
+  value VARCHAR(255),
+  print TEXT
+);
+CREATE INDEX metadata_name_value ON metadata (name, value);
+CREATE INDEX metadata_process ON metadata (processid);
+
+CREATE TABLE journal (
+  id INT AUTO_INCREMENT PRIMARY KEY,
+  objectID INT,
+  creationDate DATETIME,
+  userName VARCHAR(255),
+  type VARCHAR(50),
+  content TEXT,
+  filename VARCHAR(255),
+  entrytype VARCHAR(50)
+);